@@ -0,0 +1,142 @@
+package dev.darrencodes.pcloadletterdb.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.MountableFile;
+
+/**
+ * A throwaway PostgreSQL database for benchmarks, run in a container and set up with the same seed scripts as the
+ * database in the db directory. Each benchmark trial starts its own so one benchmark cannot leave behind data or
+ * bloat that skews the next.
+ * <p>
+ * The seed scripts are found through the pcloadletter.benchmark.seed-dir system property, which the jmh task
+ * sets.
+ */
+public final class BenchmarkDatabase implements AutoCloseable {
+
+    private static final String IMAGE = "postgres:16";
+
+    // Rows are between 32 and 3,200 characters so the benchmarks read rows about as wide as DataInsert loads.
+    private static final String LOAD_SQL = "insert into pc_load_letter.source (id, text_val) "
+            + "select g, repeat(md5(g::text), 1 + g % 100) from generate_series(1, ?) g";
+
+    private final PostgreSQLContainer<?> container;
+
+    /**
+     * Starts a new database and runs the seed scripts. The source table starts out empty.
+     *
+     * @throws IllegalStateException If the seed scripts cannot be found.
+     */
+    public BenchmarkDatabase() {
+
+        final Path seedDir = Path.of(System.getProperty("pcloadletter.benchmark.seed-dir", "../db/seed"));
+        if (!Files.isDirectory(seedDir)) {
+            throw new IllegalStateException(String.format("Unable to find the seed scripts in %s.", seedDir.toAbsolutePath()));
+        }
+
+        this.container = new PostgreSQLContainer<>(IMAGE)
+                .withDatabaseName("pc-load-letter-db")
+                .withUsername("postgres")
+                .withPassword("p0stgr@s");
+        try (Stream<Path> seedScripts = Files.list(seedDir)) {
+            seedScripts.forEach(seedScript -> this.container.withCopyFileToContainer(MountableFile.forHostPath(seedScript),
+                    "/docker-entrypoint-initdb.d/" + seedScript.getFileName()));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to list the seed scripts.", e);
+        }
+        this.container.start();
+    }
+
+    /**
+     * Opens a new connection to the database.
+     *
+     * @return The connection.
+     * @throws SQLException Any error will be propagated.
+     */
+    public Connection getConnection() throws SQLException {
+        return this.getConnection(new Properties());
+    }
+
+    /**
+     * Opens a new connection to the database with extra driver properties, such as reWriteBatchedInserts.
+     *
+     * @param properties The driver properties to open the connection with, in addition to the user and password.
+     * @return The connection.
+     * @throws SQLException Any error will be propagated.
+     */
+    public Connection getConnection(final Properties properties) throws SQLException {
+
+        final Properties connectionProperties = new Properties();
+        connectionProperties.putAll(properties);
+        connectionProperties.setProperty("user", this.container.getUsername());
+        connectionProperties.setProperty("password", this.container.getPassword());
+        return DriverManager.getConnection(this.container.getJdbcUrl(), connectionProperties);
+    }
+
+    /**
+     * Fills the source table with rowCount rows with IDs from 1 to rowCount and updates the table's statistics.
+     *
+     * @param rowCount The number of rows to add.
+     * @throws SQLException Any error will be propagated.
+     */
+    public void loadSource(final int rowCount) throws SQLException {
+
+        try (Connection connection = this.getConnection()) {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(LOAD_SQL)) {
+                preparedStatement.setInt(1, rowCount);
+                preparedStatement.executeUpdate();
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("vacuum analyze pc_load_letter.source");
+            }
+        }
+    }
+
+    /**
+     * Replaces the rows in the locking table with rowCount unlocked rows with IDs from 1 to rowCount.
+     *
+     * @param rowCount The number of rows to add.
+     * @throws SQLException Any error will be propagated.
+     */
+    public void loadLocking(final int rowCount) throws SQLException {
+
+        try (Connection connection = this.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("truncate table pc_load_letter.locking");
+            }
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    "insert into pc_load_letter.locking (id) select g from generate_series(1, ?) g")) {
+                preparedStatement.setInt(1, rowCount);
+                preparedStatement.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Removes every row from the source table.
+     *
+     * @throws SQLException Any error will be propagated.
+     */
+    public void truncateSource() throws SQLException {
+
+        try (Connection connection = this.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("truncate table pc_load_letter.source");
+        }
+    }
+
+    @Override
+    public void close() {
+        this.container.stop();
+    }
+}
@@ -0,0 +1,179 @@
+package dev.darrencodes.pcloadletterdb.loading;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import dev.darrencodes.pcloadletterdb.benchmark.BenchmarkDatabase;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The setup shared by the bulk-load benchmarks. Each invocation loads ROW_COUNT rows into an empty source table,
+ * split evenly over the given number of connections, each loading its share on its own thread and committing
+ * once. Each operation is one row, so the scores are rows per second. The rows come from a RowGenerator with a
+ * fixed seed, so every trial loads the same rows. Each connection's rows are generated once per trial, before
+ * anything is measured, and every invocation replays them, so only the load is measured. They take about 500MB of
+ * heap.
+ * <p>
+ * How long the commits take is reported through CommitCounters: commitMicros divided by commits is the mean
+ * commit latency.
+ */
+@State(Scope.Benchmark)
+public abstract class AbstractLoadBenchmark {
+
+    /* default */ static final int ROW_COUNT = 200_000;
+
+    // Every trial loads the same rows.
+    private static final long SEED = 42L;
+    private static final int MAX_TEXT_LENGTH = 5_000;
+    private static final Runnable NO_PROGRESS = () -> { };
+
+    @Param({"1", "4"})
+    public int connections;
+
+    private BenchmarkDatabase database;
+    private List<Connection> connectionList;
+    private ExecutorService executorService;
+    private RowGenerator rowGenerator;
+
+    /**
+     * Loads one connection's share of the rows.
+     */
+    @FunctionalInterface
+    protected interface SliceLoader {
+
+        /**
+         * Loads the rows with IDs from start to start + count - 1 without committing.
+         *
+         * @param connection The connection to load with.
+         * @param start The ID of the first row.
+         * @param count The number of rows to load.
+         * @param rowGenerator Generates the rows.
+         * @param progress What to pass as the loader's progress callback.
+         * @return The number of rows loaded.
+         * @throws SQLException Any error will be propagated.
+         * @throws IOException Any error will be propagated.
+         */
+        long load(Connection connection, int start, int count, RowGenerator rowGenerator, Runnable progress)
+                throws SQLException, IOException;
+    }
+
+    /**
+     * Counts the commits made during an iteration and the total time they took.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class CommitCounters {
+
+        public long commits;
+        public long commitMicros;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.commits = 0;
+            this.commitMicros = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+
+        this.database = new BenchmarkDatabase();
+
+        // Key point: the rows are generated here rather than while they are loaded.
+        RowGenerator preGenerated = new RowGenerator(SEED, MAX_TEXT_LENGTH);
+        for (int i = 0; i < this.connections; i++) {
+            preGenerated = preGenerated.preGenerate(this.sliceStart(i), this.sliceStart(i + 1) - this.sliceStart(i));
+        }
+        this.rowGenerator = preGenerated;
+
+        this.connectionList = new ArrayList<>(this.connections);
+        for (int i = 0; i < this.connections; i++) {
+            final Connection connection = this.openConnection(this.database);
+            connection.setAutoCommit(false);
+            this.connectionList.add(connection);
+        }
+        this.executorService = Executors.newFixedThreadPool(this.connections);
+    }
+
+    @Setup(Level.Invocation)
+    public void emptySource() throws SQLException {
+        this.database.truncateSource();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+
+        this.executorService.shutdownNow();
+        for (Connection connection : this.connectionList) {
+            connection.close();
+        }
+        this.database.close();
+    }
+
+    /**
+     * Opens one of the connections to load with. Subclasses can override this to set driver properties.
+     *
+     * @param benchmarkDatabase The database to connect to.
+     * @return The connection.
+     * @throws SQLException Any error will be propagated.
+     */
+    protected Connection openConnection(final BenchmarkDatabase benchmarkDatabase) throws SQLException {
+        return benchmarkDatabase.getConnection();
+    }
+
+    /**
+     * Loads ROW_COUNT rows with sliceLoader, split evenly over the connections.
+     *
+     * @param sliceLoader Loads each connection's share.
+     * @param commitCounters Where to record how long the commits took.
+     * @return The number of rows loaded.
+     * @throws Exception Any error loading the rows will be propagated.
+     */
+    protected long load(final SliceLoader sliceLoader, final CommitCounters commitCounters) throws Exception {
+
+        final List<Future<long[]>> futures = new ArrayList<>(this.connections);
+        for (int i = 0; i < this.connections; i++) {
+            final Connection connection = this.connectionList.get(i);
+            final int start = this.sliceStart(i);
+            final int count = this.sliceStart(i + 1) - start;
+
+            // Each slice returns the rows it loaded and how long its commit took.
+            futures.add(this.executorService.submit(() -> {
+                final long rows = sliceLoader.load(connection, start, count, this.rowGenerator, NO_PROGRESS);
+                final long commitStart = System.nanoTime();
+                connection.commit();
+                return new long[] {rows, System.nanoTime() - commitStart};
+            }));
+        }
+
+        long rows = 0;
+        for (Future<long[]> future : futures) {
+            try {
+                final long[] result = future.get();
+                rows += result[0];
+                commitCounters.commits++;
+                commitCounters.commitMicros += TimeUnit.NANOSECONDS.toMicros(result[1]);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        return rows;
+    }
+
+    // Returns the ID of the first row the given connection loads.
+    private int sliceStart(final int connection) {
+        return (int) ((long) ROW_COUNT * connection / this.connections);
+    }
+}
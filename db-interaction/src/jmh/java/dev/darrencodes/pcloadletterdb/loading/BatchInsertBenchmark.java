@@ -0,0 +1,42 @@
+package dev.darrencodes.pcloadletterdb.loading;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import dev.darrencodes.pcloadletterdb.benchmark.BenchmarkDatabase;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks DataInsert.fastSourceInsert, sweeping the batch size and whether the driver rewrites each batch into
+ * multi-row inserts.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchInsertBenchmark extends AbstractLoadBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int batchSize;
+
+    @Param({"false", "true"})
+    public boolean reWriteBatchedInserts;
+
+    @Override
+    protected Connection openConnection(final BenchmarkDatabase benchmarkDatabase) throws SQLException {
+
+        final Properties properties = new Properties();
+        properties.setProperty("reWriteBatchedInserts", Boolean.toString(this.reWriteBatchedInserts));
+        return benchmarkDatabase.getConnection(properties);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public long batchInsert(final CommitCounters commitCounters) throws Exception {
+        return this.load((connection, start, count, rowGenerator, progress) ->
+                DataInsert.fastSourceInsert(connection, start, count, rowGenerator, this.batchSize, progress), commitCounters);
+    }
+}
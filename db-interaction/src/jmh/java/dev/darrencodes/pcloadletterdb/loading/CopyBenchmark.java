@@ -0,0 +1,22 @@
+package dev.darrencodes.pcloadletterdb.loading;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks DataInsert.copySourceInsert, loading with PostgreSQL's binary COPY.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CopyBenchmark extends AbstractLoadBenchmark {
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public long copy(final CommitCounters commitCounters) throws Exception {
+        return this.load(DataInsert::copySourceInsert, commitCounters);
+    }
+}
@@ -0,0 +1,27 @@
+package dev.darrencodes.pcloadletterdb.loading;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks DataInsert.multiRowSourceInsert, sweeping the number of rows in each insert statement.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MultiRowInsertBenchmark extends AbstractLoadBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int rowsPerStatement;
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public long multiRowInsert(final CommitCounters commitCounters) throws Exception {
+        return this.load((connection, start, count, rowGenerator, progress) ->
+                DataInsert.multiRowSourceInsert(connection, start, count, rowGenerator, this.rowsPerStatement, progress),
+                commitCounters);
+    }
+}
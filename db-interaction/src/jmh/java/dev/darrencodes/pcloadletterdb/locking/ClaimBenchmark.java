@@ -0,0 +1,139 @@
+package dev.darrencodes.pcloadletterdb.locking;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import dev.darrencodes.pcloadletterdb.benchmark.BenchmarkDatabase;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks claiming every record in the locking table with a number of concurrent workers, each on its own
+ * connection, using the "for update" approach in Locking and the "skip locked" approach in SkipLockedQueue. Each
+ * operation is one record claimed, so the scores are claims per second.
+ * <p>
+ * The batch size only applies to skipLocked, so it is a parameter of SkipLockedState, which only skipLocked uses;
+ * Locking always claims one record at a time, and forUpdate is only run once per number of workers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClaimBenchmark {
+
+    /* default */ static final int ROW_COUNT = 2_000;
+
+    @Param({"1", "8", "64"})
+    public int workers;
+
+    private BenchmarkDatabase database;
+    private List<Connection> connectionList;
+    private ExecutorService executorService;
+
+    /**
+     * The number of records each skipLocked claim takes.
+     */
+    @State(Scope.Benchmark)
+    public static class SkipLockedState {
+
+        @Param({"1", "16"})
+        public int batchSize;
+    }
+
+    /**
+     * Makes one claim on a connection.
+     */
+    @FunctionalInterface
+    private interface Claimer {
+
+        int claim(Connection connection) throws SQLException;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+
+        // Locking logs every record it updates, which would be most of what is being measured.
+        final Logger log = (Logger) org.slf4j.LoggerFactory.getLogger(ch.qos.logback.classic.Logger.ROOT_LOGGER_NAME);
+        log.setLevel(Level.WARN);
+
+        this.database = new BenchmarkDatabase();
+        this.database.loadLocking(ROW_COUNT);
+
+        this.connectionList = new ArrayList<>(this.workers);
+        for (int i = 0; i < this.workers; i++) {
+            this.connectionList.add(this.database.getConnection());
+        }
+        this.executorService = Executors.newFixedThreadPool(this.workers);
+    }
+
+    @Setup(Level.Invocation)
+    public void releaseAll() throws SQLException {
+
+        try (Connection connection = this.database.getConnection()) {
+            SkipLockedQueue.releaseAll(connection);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+
+        this.executorService.shutdownNow();
+        for (Connection connection : this.connectionList) {
+            connection.close();
+        }
+        this.database.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public int skipLocked(final SkipLockedState skipLockedState) throws Exception {
+        return this.claimAll(connection -> SkipLockedQueue.claim(connection, Thread.currentThread().getName(),
+                skipLockedState.batchSize).size());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public int forUpdate() throws Exception {
+        // A claim that finds the record already taken, or no record at all because it lost a race, claimed nothing.
+        return this.claimAll(connection -> Math.max(0, Locking.claimFirstUnlocked(connection, 0)));
+    }
+
+    // Has every worker claim until all ROW_COUNT records have been claimed.
+    private int claimAll(final Claimer claimer) throws Exception {
+
+        final AtomicInteger claimed = new AtomicInteger();
+        final List<Future<?>> futures = new ArrayList<>(this.workers);
+        for (Connection connection : this.connectionList) {
+            futures.add(this.executorService.submit(() -> {
+                while (claimed.get() < ROW_COUNT) {
+                    claimed.addAndGet(claimer.claim(connection));
+                }
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        return claimed.get();
+    }
+}
@@ -0,0 +1,72 @@
+package dev.darrencodes.pcloadletterdb.reading;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import dev.darrencodes.pcloadletterdb.benchmark.BenchmarkDatabase;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Benchmarks how long it takes for the first row of the whole source table to reach the application, with
+ * auto-commit on and with the cursor ReaderSettings sets up. Each operation is sampled so the results include
+ * percentiles such as p0.99.
+ * <p>
+ * With auto-commit on, the driver reads every row before handing back the first, so the fetch size makes no
+ * difference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FirstRowBenchmark {
+
+    @Param({"true", "false"})
+    public boolean cursor;
+
+    @Param({"100", "1000", "10000"})
+    public int fetchSize;
+
+    private BenchmarkDatabase database;
+    private Connection connection;
+    private ReaderSettings readerSettings;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+
+        this.database = new BenchmarkDatabase();
+        this.database.loadSource(ReadBenchmark.ROW_COUNT);
+        this.connection = this.database.getConnection();
+        this.readerSettings = new ReaderSettings(this.fetchSize, true, 0, 0);
+        if (this.cursor) {
+            this.readerSettings.configure(this.connection);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+
+        this.connection.close();
+        this.database.close();
+    }
+
+    @Benchmark
+    public String firstRow() throws SQLException {
+
+        try (Statement statement = this.connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            this.readerSettings.configure(statement);
+            try (ResultSet resultSet = statement.executeQuery("select text_val from pc_load_letter.source")) {
+                resultSet.next();
+                return resultSet.getString("text_val");
+            }
+        } finally {
+            if (this.cursor) {
+                this.connection.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package dev.darrencodes.pcloadletterdb.reading;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import dev.darrencodes.pcloadletterdb.benchmark.BenchmarkDatabase;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * Benchmarks JdbcTemplateLoadToList reading the whole source table into a List, the baseline the streaming
+ * strategies in ReadBenchmark are compared against. It uses none of the reader settings, so it has no parameters.
+ * Each operation is one row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadToListBenchmark {
+
+    private BenchmarkDatabase database;
+    private Connection connection;
+    private SingleConnectionDataSource dataSource;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+
+        this.database = new BenchmarkDatabase();
+        this.database.loadSource(ReadBenchmark.ROW_COUNT);
+        this.connection = this.database.getConnection();
+        this.dataSource = new SingleConnectionDataSource(this.connection, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+
+        this.connection.close();
+        this.database.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ReadBenchmark.ROW_COUNT)
+    public List<String> jdbcTemplateLoadToList() {
+        return JdbcTemplateLoadToList.read(this.dataSource);
+    }
+}
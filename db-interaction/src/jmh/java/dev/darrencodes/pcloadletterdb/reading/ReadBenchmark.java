@@ -0,0 +1,74 @@
+package dev.darrencodes.pcloadletterdb.reading;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import dev.darrencodes.pcloadletterdb.benchmark.BenchmarkDatabase;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+/**
+ * Benchmarks each of the streaming read strategies in this package reading the whole source table, at several fetch
+ * sizes and with and without an adaptive fetch size. Each operation is one row, so the scores are rows per second
+ * and the GC profiler's gc.alloc.rate.norm is bytes allocated per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReadBenchmark {
+
+    /* default */ static final int ROW_COUNT = 100_000;
+
+    @Param({"100", "1000", "10000"})
+    public int fetchSize;
+
+    @Param({"0", "4194304"})
+    public long fetchByteBudget;
+
+    private BenchmarkDatabase database;
+    private Connection connection;
+    private SingleConnectionDataSource dataSource;
+    private ReaderSettings readerSettings;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+
+        this.database = new BenchmarkDatabase();
+        this.database.loadSource(ROW_COUNT);
+
+        // Every strategy reads over the same connection so connecting is not part of what is measured.
+        this.connection = this.database.getConnection();
+        this.dataSource = new SingleConnectionDataSource(this.connection, true);
+        this.readerSettings = new ReaderSettings(this.fetchSize, true, 0, this.fetchByteBudget);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+
+        this.connection.close();
+        this.database.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public int rawJdbc(final Blackhole blackhole) throws SQLException {
+        return RawJdbc.read(this.connection, this.readerSettings, (s, rowNum) -> blackhole.consume(s));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public void jdbcTemplateStreamProcess(final Blackhole blackhole) {
+        JdbcTemplateStreamProcess.read(this.dataSource, this.readerSettings, rs -> blackhole.consume(rs.getString("text_val")));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROW_COUNT)
+    public void jdbcTemplateJavaStream(final Blackhole blackhole) {
+        JdbcTemplateJavaStream.read(this.dataSource, this.readerSettings, blackhole::consume);
+    }
+}
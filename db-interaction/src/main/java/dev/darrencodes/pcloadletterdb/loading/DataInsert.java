@@ -1,144 +1,332 @@
 package dev.darrencodes.pcloadletterdb.loading;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.sql.*;
 import java.time.Instant;
-import java.util.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
 
 /**
  * This class serves two purposes. The first is to load some data for other demonstrations. The second is to demonstrate
- * the performance gain from JDBC bulk inserts.
+ * the performance gain from JDBC bulk inserts, and the further gain from PostgreSQL's COPY command.
  */
 public class DataInsert {
 
     private static final String INSERT_SQL = "insert into pc_load_letter.source (id, text_val) values (?, ?)";
+    private static final String COPY_SQL = "copy pc_load_letter.source (id, text_val) from stdin (format binary)";
+
+    // Every binary COPY stream has to start with this signature.
+    private static final byte[] COPY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    private static final int COPY_BUFFER_SIZE = 65_536;
+
+    private static final Runnable PRINT_PROGRESS = () -> System.out.print(".");
+    private static final Runnable NO_PROGRESS = () -> { };
+
+    // How the last million rows are loaded in parallel. These can be overridden with system properties.
+    private static final int LOADER_WORKERS = Integer.getInteger("pcloadletter.loader.workers", 4);
+    private static final int LOADER_CHUNK_SIZE = Integer.getInteger("pcloadletter.loader.chunk-size", 50_000);
+    private static final int LOADER_MAX_ATTEMPTS = Integer.getInteger("pcloadletter.loader.max-attempts", 3);
 
     private static final int MAX_STRING_SIZE = 5_000;
-    private static final int STRING_LOWER_BOUND = 48;
-    private static final int STRING_UPPER_BOUND = 122;
 
     public static void main(String[] args) {
 
+        // The rows are generated on another thread as they are loaded. Each row depends only on the seed and its ID,
+        // not on how the IDs are split into phases or chunks, so pass the seed printed here as
+        // -Dpcloadletter.loader.seed to load exactly the same rows again, even with a different chunk size.
+        final long seed = Long.getLong("pcloadletter.loader.seed", new SplittableRandom().nextLong());
+        final RowGenerator rowGenerator = new RowGenerator(seed, MAX_STRING_SIZE);
+        System.out.printf("Generating rows with seed %d.\n", seed);
+
         try (Connection connection = DriverManager.getConnection("jdbc:postgresql://localhost:5432/pc-load-letter-db",
                 "postgres", "p0stgr@s")) {
             connection.setAutoCommit(false);
 
-            // Generate a bunch of random strings so this doesn't affect the timing comparison.
-            final List<String> generatedStrings = genRandomStringList(50_000);
-
             // So and time the slow insert.
             Instant start = Instant.now();
-            int rowsInserted = slowSourceInsert(connection, 0, 50_000, generatedStrings);
+            int rowsInserted = slowSourceInsert(connection, 0, 50_000, rowGenerator, PRINT_PROGRESS);
+            System.out.println();
             connection.commit();
             Instant end = Instant.now();
             System.out.printf("%,d records inserted in %,d milliseconds the slow way.\n", rowsInserted, end.toEpochMilli() - start.toEpochMilli());
 
             // Do and time the fast insert.
             start = Instant.now();
-            rowsInserted = fastSourceInsert(connection, 50_000, 1_000_000, generatedStrings);
+            rowsInserted = fastSourceInsert(connection, 50_000, 1_000_000, rowGenerator, 1_000, PRINT_PROGRESS);
+            System.out.println();
             connection.commit();
             end = Instant.now();
             System.out.printf("%,d records inserted in %,d milliseconds the fast way.\n", rowsInserted, end.toEpochMilli() - start.toEpochMilli());
 
-            // Add another million so we have a ton of records
+            // Add another million so we have a ton of records, this time with COPY.
             start = Instant.now();
-            rowsInserted = fastSourceInsert(connection, 1_050_000, 1_000_000, generatedStrings);
+            final long rowsCopied = copySourceInsert(connection, 1_050_000, 1_000_000, rowGenerator, PRINT_PROGRESS);
+            System.out.println();
             connection.commit();
             end = Instant.now();
-            System.out.printf("%,d records inserted in %,d milliseconds the fast way.\n", rowsInserted, end.toEpochMilli() - start.toEpochMilli());
+            System.out.printf("%,d records inserted in %,d milliseconds with COPY.\n", rowsCopied, end.toEpochMilli() - start.toEpochMilli());
 
+        } catch (SQLException | IOException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        // And one more million with COPY over several connections at once, to compare with COPY over one.
+        try {
+            parallelCopyInsert(2_050_000, 1_000_000, rowGenerator);
         } catch (SQLException e) {
             System.err.println(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Demonstrates splitting a load over a pool of connections, each loading and committing a chunk at a time.
+    private static void parallelCopyInsert(final int start, final int count, final RowGenerator rowGenerator)
+            throws SQLException, InterruptedException {
+
+        // This will turn off the logs that Hikari generates.
+        final Logger log = (Logger) org.slf4j.LoggerFactory.getLogger(ch.qos.logback.classic.Logger.ROOT_LOGGER_NAME);
+        log.setLevel(Level.WARN);
+
+        final HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:postgresql://localhost:5432/pc-load-letter-db");
+        config.setUsername("postgres");
+        config.setPassword("p0stgr@s");
+        // Key point: one connection per worker. More workers than connections just wait on the pool.
+        config.setMaximumPoolSize(LOADER_WORKERS);
+
+        try (HikariDataSource dataSource = new HikariDataSource(config)) {
+
+            final ParallelLoader parallelLoader = new ParallelLoader(dataSource, LOADER_WORKERS, LOADER_CHUNK_SIZE,
+                    LOADER_MAX_ATTEMPTS);
+
+            final Instant startTime = Instant.now();
+            final List<ParallelLoader.WorkerResult> workerResults = parallelLoader.load(start, count,
+                    (connection, chunkStart, chunkRows) -> {
+                        final long rowsCopied = copySourceInsert(connection, chunkStart, chunkRows, rowGenerator, NO_PROGRESS);
+                        PRINT_PROGRESS.run();
+                        return rowsCopied;
+                    });
+            System.out.println();
+            final Instant endTime = Instant.now();
+
+            final long millis = endTime.toEpochMilli() - startTime.toEpochMilli();
+            final long rowsCopied = workerResults.stream().mapToLong(ParallelLoader.WorkerResult::getRows).sum();
+            System.out.printf("%,d records inserted in %,d milliseconds with COPY over %,d connections (%,d rows/second).\n",
+                    rowsCopied, millis, LOADER_WORKERS, millis == 0 ? 0 : rowsCopied * 1_000 / millis);
+            for (ParallelLoader.WorkerResult workerResult : workerResults) {
+                System.out.printf("    %s: %,d records in %,d chunks with %,d retries in %,d milliseconds (%,d rows/second).\n",
+                        workerResult.getName(), workerResult.getRows(), workerResult.getChunks(),
+                        workerResult.getRetries(), workerResult.getMillis(), workerResult.getRowsPerSecond());
+            }
         }
     }
 
     // Demonstrates a bunch of inserts that does not use JDBC bulk insert.
     private static int slowSourceInsert(final Connection connection, final int start, final int count,
-                                        final List<String> textValues) throws SQLException {
+                                        final RowGenerator rowGenerator, final Runnable progress) throws SQLException {
 
         int totalRowsInserted = 0;
 
-        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_SQL)) {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_SQL);
+             RowGenerator.RowStream rows = rowGenerator.stream(start, count)) {
 
-            for (int i = 0; i < count; i++) {
-                final int rowNum = start + i;
-                preparedStatement.setLong(1, rowNum);
-                preparedStatement.setString(2, textValues.get(i % textValues.size()));
+            for (int i = 0; rows.next(); i++) {
+                preparedStatement.setLong(1, rows.getId());
+                preparedStatement.setString(2, rows.getText());
                 // Send each row to the DB as it is generated.
                 totalRowsInserted += preparedStatement.executeUpdate();
                 if (i % 1_000 == 0) {
-                    System.out.print(".");
+                    progress.run();
                 }
             }
         }
 
-        System.out.println();
         return totalRowsInserted;
     }
 
-    // Demonstrates inserts with JDBC bulk insert.
-    private static int fastSourceInsert(final Connection connection, final int start, final int count,
-                                        final List<String> textValues) throws SQLException {
+    /**
+     * Demonstrates inserts with JDBC bulk insert. The batches are only rewritten into multi-row inserts if the
+     * connection was opened with reWriteBatchedInserts=true.
+     *
+     * @param connection The connection to insert with. The caller is responsible for committing.
+     * @param start The ID of the first row.
+     * @param count The number of rows to insert.
+     * @param rowGenerator Generates the rows.
+     * @param batchSize The number of rows to send to the database at a time.
+     * @param progress Run after each batch is sent.
+     * @return The number of rows inserted.
+     * @throws SQLException Any error will be propagated.
+     */
+    /* default */ static int fastSourceInsert(final Connection connection, final int start, final int count,
+                                              final RowGenerator rowGenerator, final int batchSize,
+                                              final Runnable progress) throws SQLException {
 
         int totalRowsInserted = 0;
 
-        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_SQL)) {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_SQL);
+             RowGenerator.RowStream rows = rowGenerator.stream(start, count)) {
 
             boolean needsFlush = false;
 
-            for (int i = 0; i < count; i++) {
-                final int rowNum = start + i;
-                preparedStatement.setLong(1, rowNum);
-                preparedStatement.setString(2, textValues.get(i % textValues.size()));
+            for (int i = 0; rows.next(); i++) {
+                preparedStatement.setLong(1, rows.getId());
+                preparedStatement.setString(2, rows.getText());
                 // This is the key difference. This batches stuff to send over to the DB in chunks rather than
                 // one at a time.
                 preparedStatement.addBatch();
                 needsFlush = true;
 
-                // To keep the buffer from becoming too big, flush it every 1,000 records. This is a parameter
-                // developers can play with.
-                if (i % 1_000 == 0) {
-                    final int[] rowsInserted =  preparedStatement.executeBatch();
-                    totalRowsInserted += Arrays.stream(rowsInserted).sum();
+                // To keep the buffer from becoming too big, flush it every batchSize records. This is a parameter
+                // developers can play with; BatchInsertBenchmark measures the effect of changing it.
+                if ((i + 1) % batchSize == 0) {
+                    totalRowsInserted += sumUpdateCounts(preparedStatement.executeBatch());
                     needsFlush = false;
-                    System.out.print(".");
+                    progress.run();
                 }
             }
 
             // The driver will not automatically flush the buffer on close. If there is stuff still in the buffer,
             // you have to explicitly send it to the DB.
             if (needsFlush) {
-                final int[] rowsInserted =  preparedStatement.executeBatch();
-                totalRowsInserted += Arrays.stream(rowsInserted).sum();
-                System.out.print(".");
+                totalRowsInserted += sumUpdateCounts(preparedStatement.executeBatch());
+                progress.run();
             }
         }
 
-        System.out.println();
         return totalRowsInserted;
     }
 
+    /**
+     * Demonstrates inserting several rows with each insert statement, "insert ... values (?, ?), (?, ?), ...", rather
+     * than relying on the driver to rewrite batches.
+     *
+     * @param connection The connection to insert with. The caller is responsible for committing.
+     * @param start The ID of the first row.
+     * @param count The number of rows to insert.
+     * @param rowGenerator Generates the rows.
+     * @param rowsPerStatement The number of rows in each insert statement. PostgreSQL allows at most 32,767
+     *                         parameters in a statement, so this can be no more than 16,383.
+     * @param progress Run after each statement is executed.
+     * @return The number of rows inserted.
+     * @throws SQLException Any error will be propagated.
+     */
+    /* default */ static int multiRowSourceInsert(final Connection connection, final int start, final int count,
+                                                  final RowGenerator rowGenerator, final int rowsPerStatement,
+                                                  final Runnable progress) throws SQLException {
+
+        int totalRowsInserted = 0;
+
+        try (PreparedStatement fullStatement = connection.prepareStatement(multiRowInsertSql(rowsPerStatement));
+             RowGenerator.RowStream rows = rowGenerator.stream(start, count)) {
 
-    // Generates a list of numberToGen random Strings.
-    private static List<String> genRandomStringList(final int numberToGen) {
+            int i = 0;
+            while (count - i >= rowsPerStatement) {
+                totalRowsInserted += bindAndExecute(fullStatement, rowsPerStatement, rows);
+                i += rowsPerStatement;
+                progress.run();
+            }
 
-        final List<String> toReturn = new ArrayList<>(numberToGen);
-        for (int i = 0; i < numberToGen; i++) {
-            toReturn.add(genRandomString());
+            // Whatever is left over needs a statement of its own size.
+            if (i < count) {
+                try (PreparedStatement remainderStatement = connection.prepareStatement(multiRowInsertSql(count - i))) {
+                    totalRowsInserted += bindAndExecute(remainderStatement, count - i, rows);
+                    progress.run();
+                }
+            }
+        }
+
+        return totalRowsInserted;
+    }
+
+    /**
+     * Demonstrates loading with PostgreSQL's COPY command in its binary format. Rather than sending insert
+     * statements, even in batches, this streams the rows to the DB as they are produced in PostgreSQL's binary
+     * format, so the DB has no statements to execute and no text to convert. This is specific to PostgreSQL.
+     *
+     * @param connection The connection to insert with. The caller is responsible for committing.
+     * @param start The ID of the first row.
+     * @param count The number of rows to insert.
+     * @param rowGenerator Generates the rows.
+     * @param progress Run after every 1,000 rows.
+     * @return The number of rows inserted.
+     * @throws SQLException Any error will be propagated.
+     * @throws IOException Any error will be propagated.
+     */
+    /* default */ static long copySourceInsert(final Connection connection, final int start, final int count,
+                                               final RowGenerator rowGenerator, final Runnable progress) throws SQLException, IOException {
+
+        final PGConnection pgConnection = connection.unwrap(PGConnection.class);
+
+        // The COPY stream buffers what is written to it and sends it to the DB each time the buffer fills.
+        try (PGCopyOutputStream copyOutputStream = new PGCopyOutputStream(pgConnection, COPY_SQL, COPY_BUFFER_SIZE);
+             RowGenerator.RowStream rows = rowGenerator.stream(start, count)) {
+
+            final DataOutputStream dataOutputStream = new DataOutputStream(copyOutputStream);
+
+            // The header is the signature followed by 32-bit flags and header extension length, both of which are 0.
+            dataOutputStream.write(COPY_SIGNATURE);
+            dataOutputStream.writeInt(0);
+            dataOutputStream.writeInt(0);
+
+            for (int i = 0; rows.next(); i++) {
+
+                // Each row is the number of fields, then each field's length in bytes followed by its value. The
+                // text is copied straight from the generator's buffer; it is ASCII, so it is already valid UTF-8.
+                dataOutputStream.writeShort(2);
+                dataOutputStream.writeInt(Integer.BYTES);
+                dataOutputStream.writeInt(rows.getId());
+                dataOutputStream.writeInt(rows.getLength());
+                dataOutputStream.write(rows.getBuffer(), rows.getOffset(), rows.getLength());
+
+                if (i % 1_000 == 0) {
+                    progress.run();
+                }
+            }
+
+            // The trailer is a field count of -1.
+            dataOutputStream.writeShort(-1);
+
+            return copyOutputStream.endCopy();
         }
+    }
+
+    // Builds an insert statement with rowCount rows of parameters.
+    private static String multiRowInsertSql(final int rowCount) {
 
-        return toReturn;
+        final StringBuilder sql = new StringBuilder("insert into pc_load_letter.source (id, text_val) values (?, ?)");
+        for (int i = 1; i < rowCount; i++) {
+            sql.append(", (?, ?)");
+        }
+        return sql.toString();
     }
 
-    // Generates a random String of up to 5,000 characters.
-    private static String genRandomString() {
+    // Binds the next rowCount rows from rows to a multi-row insert statement and executes it.
+    private static int bindAndExecute(final PreparedStatement preparedStatement, final int rowCount,
+                                      final RowGenerator.RowStream rows) throws SQLException {
 
-        final Random randomGenerator = new Random();
+        for (int i = 0; i < rowCount && rows.next(); i++) {
+            preparedStatement.setLong(i * 2 + 1, rows.getId());
+            preparedStatement.setString(i * 2 + 2, rows.getText());
+        }
+        return preparedStatement.executeUpdate();
+    }
 
-        final int numChars = randomGenerator.nextInt(MAX_STRING_SIZE);
-        return randomGenerator.ints(STRING_LOWER_BOUND, STRING_UPPER_BOUND + 1)
-                .filter(i -> (i <= 57 || i >= 65) && (i <= 90 || i >= 97))
-                .limit(numChars)
-                .collect(() -> new StringBuilder(numChars), StringBuilder::appendCodePoint, StringBuilder::append)
-                .toString();
+    // Adds up the update counts from a batch. With reWriteBatchedInserts the driver reports SUCCESS_NO_INFO for each
+    // statement, so those count as one row each.
+    private static int sumUpdateCounts(final int[] updateCounts) {
+        return Arrays.stream(updateCounts)
+                .map(updateCount -> updateCount == Statement.SUCCESS_NO_INFO ? 1 : updateCount)
+                .sum();
     }
 }
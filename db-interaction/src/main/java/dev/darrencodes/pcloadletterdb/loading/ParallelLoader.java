@@ -0,0 +1,217 @@
+package dev.darrencodes.pcloadletterdb.loading;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+
+/**
+ * Loads a range of IDs into the source table over several connections at once. The range is split into chunks,
+ * and each worker thread takes the next chunk that has not been loaded, loads it on a connection borrowed from
+ * the pool, and commits it before taking another. A failure only loses the chunk being loaded, and that chunk is
+ * retried.
+ * <p>
+ * Retries are idempotent: each attempt deletes whatever is already in the chunk's ID range in the same
+ * transaction it loads the chunk in. If a commit succeeded but the connection failed before the driver heard
+ * back, the retry replaces those rows rather than failing on duplicate keys.
+ */
+/* default */ final class ParallelLoader {
+
+    private static final String DELETE_RANGE_SQL = "delete from pc_load_letter.source where id >= ? and id < ?";
+    private static final long RETRY_BACKOFF_MILLIS = 100;
+
+    private final DataSource dataSource;
+    private final int workers;
+    private final int chunkSize;
+    private final int maxAttempts;
+
+    /**
+     * Loads one chunk of rows without committing.
+     */
+    @FunctionalInterface
+    /* default */ interface ChunkLoader {
+
+        /**
+         * Loads the rows with IDs from start to start + count - 1.
+         *
+         * @param connection The connection to load with. Auto-commit is off.
+         * @param start The ID of the first row.
+         * @param count The number of rows to load.
+         * @return The number of rows loaded.
+         * @throws SQLException Any error will be propagated.
+         * @throws IOException Any error will be propagated.
+         */
+        long load(Connection connection, int start, int count) throws SQLException, IOException;
+    }
+
+    /**
+     * What one worker did.
+     */
+    /* default */ static final class WorkerResult {
+
+        private final String name;
+        private final long rows;
+        private final int chunks;
+        private final int retries;
+        private final long nanos;
+
+        private WorkerResult(final String name, final long rows, final int chunks, final int retries, final long nanos) {
+            this.name = name;
+            this.rows = rows;
+            this.chunks = chunks;
+            this.retries = retries;
+            this.nanos = nanos;
+        }
+
+        /* default */ String getName() {
+            return this.name;
+        }
+
+        /* default */ long getRows() {
+            return this.rows;
+        }
+
+        /* default */ int getChunks() {
+            return this.chunks;
+        }
+
+        /* default */ int getRetries() {
+            return this.retries;
+        }
+
+        /* default */ long getMillis() {
+            return this.nanos / 1_000_000;
+        }
+
+        /* default */ long getRowsPerSecond() {
+            return this.nanos == 0 ? 0 : this.rows * 1_000_000_000L / this.nanos;
+        }
+    }
+
+    /**
+     * Constructs a new ParallelLoader.
+     *
+     * @param dataSource The pool to borrow connections from. It should have at least as many connections as
+     *                   there are workers.
+     * @param workers The number of chunks to load at once.
+     * @param chunkSize The number of rows to load and commit at a time.
+     * @param maxAttempts The number of times to try to load a chunk before giving up.
+     * @throws IllegalArgumentException If workers, chunkSize, or maxAttempts is less than 1.
+     */
+    /* default */ ParallelLoader(final DataSource dataSource, final int workers, final int chunkSize, final int maxAttempts) {
+
+        if (workers < 1 || chunkSize < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("The workers, chunk size, and attempts must all be at least 1.");
+        }
+
+        this.dataSource = dataSource;
+        this.workers = workers;
+        this.chunkSize = chunkSize;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Loads the rows with IDs from start to start + count - 1.
+     *
+     * @param start The ID of the first row.
+     * @param count The number of rows to load.
+     * @param chunkLoader Loads each chunk.
+     * @return What each worker did.
+     * @throws SQLException If a chunk could not be loaded in maxAttempts tries.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the workers.
+     */
+    /* default */ List<WorkerResult> load(final int start, final int count, final ChunkLoader chunkLoader)
+            throws SQLException, InterruptedException {
+
+        final int chunkCount = (count + this.chunkSize - 1) / this.chunkSize;
+        final AtomicInteger nextChunk = new AtomicInteger();
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(this.workers,
+                Thread.ofPlatform().name("loader-", 1).factory());
+        try {
+            final List<Future<WorkerResult>> futures = new ArrayList<>(this.workers);
+            for (int i = 0; i < this.workers; i++) {
+                futures.add(executorService.submit(() -> {
+                    final long workerStart = System.nanoTime();
+                    long rows = 0;
+                    int chunks = 0;
+                    int retries = 0;
+
+                    // Chunk k covers start + k * chunkSize up to the next chunk or the end of the range.
+                    int chunk;
+                    while ((chunk = nextChunk.getAndIncrement()) < chunkCount) {
+                        final int chunkStart = start + chunk * this.chunkSize;
+                        final int chunkRows = Math.min(this.chunkSize, start + count - chunkStart);
+
+                        int attempt = 1;
+                        while (true) {
+                            try {
+                                rows += this.loadChunk(chunkStart, chunkRows, chunkLoader);
+                                break;
+                            } catch (SQLException | IOException e) {
+                                if (attempt == this.maxAttempts) {
+                                    throw new SQLException(String.format("Unable to load the chunk starting at %,d after %d attempts.",
+                                            chunkStart, attempt), e);
+                                }
+                                System.err.printf("Retrying the chunk starting at %,d: %s\n", chunkStart, e.getMessage());
+                                Thread.sleep(RETRY_BACKOFF_MILLIS * attempt);
+                                attempt++;
+                                retries++;
+                            }
+                        }
+                        chunks++;
+                    }
+
+                    return new WorkerResult(Thread.currentThread().getName(), rows, chunks, retries,
+                            System.nanoTime() - workerStart);
+                }));
+            }
+
+            final List<WorkerResult> results = new ArrayList<>(this.workers);
+            for (Future<WorkerResult> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof SQLException) {
+                        throw (SQLException) e.getCause();
+                    }
+                    throw new SQLException("Unable to load the rows.", e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    // Loads and commits one chunk, first clearing out anything an earlier attempt may have committed.
+    private long loadChunk(final int chunkStart, final int chunkRows, final ChunkLoader chunkLoader)
+            throws SQLException, IOException {
+
+        try (Connection connection = this.dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                try (PreparedStatement preparedStatement = connection.prepareStatement(DELETE_RANGE_SQL)) {
+                    preparedStatement.setInt(1, chunkStart);
+                    preparedStatement.setInt(2, chunkStart + chunkRows);
+                    preparedStatement.executeUpdate();
+                }
+
+                final long rows = chunkLoader.load(connection, chunkStart, chunkRows);
+                connection.commit();
+                return rows;
+            } catch (SQLException | IOException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package dev.darrencodes.pcloadletterdb.loading;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates the rows DataInsert loads. Rather than building every string up front, each stream of rows is produced
+ * on its own thread into a fixed set of reusable batches that circulate between the producer and the loader, so
+ * generating and loading overlap and memory use does not grow with the number of rows.
+ * <p>
+ * The text of each row is a random run of letters and digits shorter than the maximum length, written straight into
+ * the batch's byte buffer as ASCII. Each row is generated from the seed and its own ID alone, so a row is the same
+ * whichever stream it is part of and however the IDs are split into streams or chunks, and a run can be reproduced
+ * exactly by passing the same seed.
+ * <p>
+ * Each stream holds BATCHES batches of BATCH_ROWS rows, which for the 5,000 character text DataInsert loads is at
+ * most about 5MB, and half that on average. Streams that are pre-generated hold all of their rows instead, so that
+ * benchmarks can keep generation out of what they measure.
+ */
+/* default */ final class RowGenerator {
+
+    private static final byte[] ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
+            .getBytes(StandardCharsets.US_ASCII);
+
+    // Each batch is filled completely before the loader sees it. BATCHES of them bound how far ahead the producer
+    // can get, and how much memory a stream can use: at most BATCHES * BATCH_ROWS * maxLength bytes.
+    private static final int BATCH_ROWS = 250;
+    private static final int BATCHES = 4;
+
+    private final long seed;
+    private final int maxLength;
+    // The batches of each pre-generated stream, by its first ID.
+    private final Map<Integer, Batch[]> preGenerated;
+
+    /**
+     * Constructs a new RowGenerator.
+     *
+     * @param seed The seed. Two generators with the same seed produce the same rows.
+     * @param maxLength The length, exclusive, of the longest text to generate.
+     * @throws IllegalArgumentException If maxLength is less than 1.
+     */
+    /* default */ RowGenerator(final long seed, final int maxLength) {
+
+        if (maxLength < 1) {
+            throw new IllegalArgumentException("The maximum length must be at least 1.");
+        }
+
+        this.seed = seed;
+        this.maxLength = maxLength;
+        this.preGenerated = Map.of();
+    }
+
+    private RowGenerator(final RowGenerator rowGenerator, final int start, final Batch[] batches) {
+
+        this.seed = rowGenerator.seed;
+        this.maxLength = rowGenerator.maxLength;
+        final Map<Integer, Batch[]> streams = new HashMap<>(rowGenerator.preGenerated);
+        streams.put(start, batches);
+        this.preGenerated = Map.copyOf(streams);
+    }
+
+    /**
+     * Returns the seed, so it can be reported and the run repeated.
+     *
+     * @return The seed.
+     */
+    /* default */ long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Starts generating the rows with IDs from start to start + count - 1. The rows are produced on a new thread,
+     * which stops when the last row is produced or the stream is closed.
+     *
+     * @param start The ID of the first row.
+     * @param count The number of rows to generate.
+     * @return The stream of rows. This should be closed in a try-with-resources block.
+     */
+    /* default */ RowStream stream(final int start, final int count) {
+
+        final Batch[] batches = this.preGenerated.get(start);
+        if (Objects.nonNull(batches) && rowCount(batches) == count) {
+            return new RowStream(batches, count);
+        }
+        return new RowStream(this.seed, this.maxLength, start, count);
+    }
+
+    /**
+     * Generates the rows with IDs from start to start + count - 1 now, on the calling thread, and returns a
+     * generator that keeps them. Streams of those rows from the returned generator replay the kept rows without
+     * generating anything or starting a thread, and are the same rows this generator would stream. The rows take
+     * about count * maxLength / 2 bytes.
+     *
+     * @param start The ID of the first row.
+     * @param count The number of rows to generate.
+     * @return A generator with the same seed that keeps the rows.
+     */
+    /* default */ RowGenerator preGenerate(final int start, final int count) {
+
+        final Batch[] batches = new Batch[(count + BATCH_ROWS - 1) / BATCH_ROWS];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = new Batch(this.maxLength);
+            batches[i].fill(this.seed, this.maxLength, start + i * BATCH_ROWS, Math.min(BATCH_ROWS, count - i * BATCH_ROWS));
+            batches[i].trim();
+        }
+        return new RowGenerator(this, start, batches);
+    }
+
+    // Returns the source of randomness for the row with the given ID. Multiplying by the golden ratio spreads
+    // consecutive IDs across the seed's bits, and SplittableRandom mixes the rest.
+    private static SplittableRandom rowRandom(final long seed, final int id) {
+        return new SplittableRandom(seed ^ id * 0x9E3779B97F4A7C15L);
+    }
+
+    private static int rowCount(final Batch[] batches) {
+
+        int rowCount = 0;
+        for (Batch batch : batches) {
+            rowCount += batch.rowCount;
+        }
+        return rowCount;
+    }
+
+    // Fills buffer from offset with length random letters and digits. Each random long gives ten 6-bit indexes, and
+    // the two that fall past the end of the alphabet are skipped so every character is equally likely.
+    private static void fillText(final SplittableRandom random, final byte[] buffer, final int offset, final int length) {
+
+        int i = 0;
+        while (i < length) {
+            long bits = random.nextLong();
+            for (int j = 0; j < 10 && i < length; j++) {
+                final int index = (int) (bits & 0x3F);
+                if (index < ALPHABET.length) {
+                    buffer[offset + i++] = ALPHABET[index];
+                }
+                bits >>>= 6;
+            }
+        }
+    }
+
+    // A batch of generated rows. The text of row i is data[offsets[i]] up to data[offsets[i + 1]].
+    private static final class Batch {
+
+        private final int[] offsets = new int[BATCH_ROWS + 1];
+        private byte[] data;
+        private int firstId;
+        private int rowCount;
+
+        private Batch(final int maxLength) {
+            this.data = new byte[BATCH_ROWS * Math.min(maxLength, 256)];
+        }
+
+        // Generates rowCount rows into this batch, starting with the given ID. Each row gets its own randomness.
+        private void fill(final long seed, final int maxLength, final int firstId, final int rowCount) {
+
+            this.firstId = firstId;
+            this.rowCount = rowCount;
+
+            int position = 0;
+            for (int i = 0; i < rowCount; i++) {
+                final SplittableRandom random = rowRandom(seed, firstId + i);
+                final int length = random.nextInt(maxLength);
+                this.ensureCapacity(position, length);
+                this.offsets[i] = position;
+                fillText(random, this.data, position, length);
+                position += length;
+            }
+            this.offsets[rowCount] = position;
+        }
+
+        // Drops the unused end of the buffer, for batches that are kept rather than refilled.
+        private void trim() {
+            this.data = Arrays.copyOf(this.data, this.offsets[this.rowCount]);
+        }
+
+        // Makes sure there is room for another length bytes after position.
+        private void ensureCapacity(final int position, final int length) {
+            if (position + length > this.data.length) {
+                final byte[] grown = new byte[Math.max(this.data.length * 2, position + length)];
+                System.arraycopy(this.data, 0, grown, 0, position);
+                this.data = grown;
+            }
+        }
+    }
+
+    /**
+     * The loader's end of a stream of generated rows. Call next to move to each row, then read its ID and text.
+     * A RowStream is not thread-safe; it is meant to be read by the one thread loading its rows. A stream of
+     * pre-generated rows has no producer; it reads the kept batches in order and does not hand them back.
+     */
+    /* default */ static final class RowStream implements AutoCloseable {
+
+        private final BlockingQueue<Batch> freeBatches = new ArrayBlockingQueue<>(BATCHES);
+        private final BlockingQueue<Batch> fullBatches = new ArrayBlockingQueue<>(BATCHES);
+        private final Thread producer;
+        private final Batch[] replay;
+        private final int count;
+
+        private volatile Throwable producerFailure;
+
+        private Batch batch;
+        private int rowInBatch;
+        private int rowsRead;
+        private int replayed;
+
+        private RowStream(final Batch[] replay, final int count) {
+            this.producer = null;
+            this.replay = replay;
+            this.count = count;
+        }
+
+        private RowStream(final long seed, final int maxLength, final int start, final int count) {
+
+            this.replay = null;
+            this.count = count;
+            for (int i = 0; i < BATCHES; i++) {
+                this.freeBatches.add(new Batch(maxLength));
+            }
+
+            this.producer = Thread.ofPlatform().daemon().name("row-generator").start(() -> {
+                try {
+                    for (int produced = 0; produced < count; ) {
+                        final Batch next = this.freeBatches.take();
+                        next.fill(seed, maxLength, start + produced, Math.min(BATCH_ROWS, count - produced));
+                        this.fullBatches.put(next);
+                        produced += next.rowCount;
+                    }
+                } catch (InterruptedException e) {
+                    // The stream was closed before every row was read.
+                } catch (RuntimeException | Error e) {
+                    this.producerFailure = e;
+                }
+            });
+        }
+
+        /**
+         * Moves to the next row, waiting for it to be generated if needed.
+         *
+         * @return True if there is another row, false if every row has been read.
+         * @throws IllegalStateException If the rows could not be generated or the thread was interrupted.
+         */
+        /* default */ boolean next() {
+
+            if (this.rowsRead == this.count) {
+                return false;
+            }
+
+            if (Objects.isNull(this.batch) || ++this.rowInBatch == this.batch.rowCount) {
+                // Hand the batch back for the producer to refill and wait for the next one.
+                if (Objects.nonNull(this.batch) && Objects.isNull(this.replay)) {
+                    this.freeBatches.add(this.batch);
+                }
+                this.batch = this.takeBatch();
+                this.rowInBatch = 0;
+            }
+
+            this.rowsRead++;
+            return true;
+        }
+
+        /**
+         * Returns the current row's ID.
+         *
+         * @return The ID.
+         */
+        /* default */ int getId() {
+            return this.batch.firstId + this.rowInBatch;
+        }
+
+        /**
+         * Returns the buffer that holds the current row's text as ASCII. It is only valid until next is called.
+         *
+         * @return The buffer.
+         */
+        /* default */ byte[] getBuffer() {
+            return this.batch.data;
+        }
+
+        /**
+         * Returns where in the buffer the current row's text starts.
+         *
+         * @return The offset.
+         */
+        /* default */ int getOffset() {
+            return this.batch.offsets[this.rowInBatch];
+        }
+
+        /**
+         * Returns the length in bytes of the current row's text.
+         *
+         * @return The length.
+         */
+        /* default */ int getLength() {
+            return this.batch.offsets[this.rowInBatch + 1] - this.batch.offsets[this.rowInBatch];
+        }
+
+        /**
+         * Returns the current row's text as a String, for loaders that need one.
+         *
+         * @return The text.
+         */
+        /* default */ String getText() {
+            return new String(this.getBuffer(), this.getOffset(), this.getLength(), StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public void close() {
+            if (Objects.nonNull(this.producer)) {
+                this.producer.interrupt();
+            }
+        }
+
+        // Waits for the producer to fill the next batch.
+        private Batch takeBatch() {
+
+            if (Objects.nonNull(this.replay)) {
+                return this.replay[this.replayed++];
+            }
+
+            try {
+                Batch next;
+                while (Objects.isNull(next = this.fullBatches.poll(100, TimeUnit.MILLISECONDS))) {
+                    if (Objects.nonNull(this.producerFailure)) {
+                        throw new IllegalStateException("Unable to generate the rows.", this.producerFailure);
+                    }
+                }
+                return next;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for rows to be generated.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package dev.darrencodes.pcloadletterdb.locking;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records how much contention the locking demonstrations run into, tagged by the task (thread) that ran into it:
+ * <ul>
+ *     <li>pcloadletter.locking.lock-wait: how long the task waited for "select ... for update" to return, which is
+ *     how long it waited for another transaction's row lock.</li>
+ *     <li>pcloadletter.locking.transaction: how long each of the task's transactions was open.</li>
+ *     <li>pcloadletter.locking.retries: how many times the task had to try again because its record was taken.</li>
+ * </ul>
+ */
+/* default */ final class LockMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(LockMetrics.class);
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Constructs a new LockMetrics.
+     *
+     * @param meterRegistry Where to record the metrics, such as Metrics.globalRegistry. It may hold other meters;
+     *                      only these are summarized.
+     */
+    /* default */ LockMetrics(final MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /* default */ void recordLockWait(final String task, final long nanos) {
+        Timer.builder("pcloadletter.locking.lock-wait").tag("task", task).register(this.meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /* default */ void recordTransaction(final String task, final long nanos) {
+        Timer.builder("pcloadletter.locking.transaction").tag("task", task).register(this.meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /* default */ void recordRetry(final String task) {
+        Counter.builder("pcloadletter.locking.retries").tag("task", task).register(this.meterRegistry).increment();
+    }
+
+    /**
+     * Logs every pcloadletter.locking meter recorded so far, one line each.
+     */
+    /* default */ void logSummary() {
+
+        for (Meter meter : this.meterRegistry.getMeters()) {
+            if (!meter.getId().getName().startsWith("pcloadletter.locking.")) {
+                continue;
+            }
+            final String task = meter.getId().getTag("task");
+            if (meter instanceof Timer) {
+                final Timer timer = (Timer) meter;
+                logger.info(String.format("%s [%s]: %,d times, %,.1f ms total, %,.1f ms max.", meter.getId().getName(), task,
+                        timer.count(), timer.totalTime(TimeUnit.MILLISECONDS), timer.max(TimeUnit.MILLISECONDS)));
+            } else if (meter instanceof Counter) {
+                logger.info(String.format("%s [%s]: %,.0f.", meter.getId().getName(), task, ((Counter) meter).count()));
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package dev.darrencodes.pcloadletterdb.locking;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the database for sessions waiting on locks while a demonstration runs. Every interval, it asks
+ * PostgreSQL which sessions are waiting on a lock and which sessions hold it, using pg_stat_activity and
+ * pg_blocking_pids, which reads pg_locks. Sessions are identified by their application name, which the update tasks
+ * set to their thread's name.
+ * <p>
+ * The number of waiting sessions in each sample is recorded in pcloadletter.locking.blocked-sessions. When it is
+ * closed, the sampler logs the longest wait it saw for each pair of waiting and blocking sessions. This is the
+ * database's view of the same waits LockMetrics times from the application.
+ */
+/* default */ final class LockSampler implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LockSampler.class);
+
+    private static final String BLOCKED_SQL = "select waiting.application_name, blocking.application_name, "
+            + "(extract(epoch from clock_timestamp() - waiting.query_start) * 1000)::bigint "
+            + "from pg_stat_activity waiting "
+            + "cross join lateral unnest(pg_blocking_pids(waiting.pid)) as blocker(pid) "
+            + "join pg_stat_activity blocking on blocking.pid = blocker.pid "
+            + "where waiting.wait_event_type = 'Lock'";
+
+    private final DataSource dataSource;
+    private final DistributionSummary blockedSessions;
+    private final Map<String, Long> longestWaits = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Constructs a new LockSampler and starts sampling.
+     *
+     * @param dataSource Where to borrow the connection to sample with.
+     * @param meterRegistry Where to record the samples.
+     * @param intervalMillis How often to sample.
+     */
+    /* default */ LockSampler(final DataSource dataSource, final MeterRegistry meterRegistry, final long intervalMillis) {
+
+        this.dataSource = dataSource;
+        this.blockedSessions = DistributionSummary.builder("pcloadletter.locking.blocked-sessions")
+                .description("Sessions waiting on a lock in each sample")
+                .register(meterRegistry);
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().daemon().name("lock-sampler").factory());
+        this.scheduler.scheduleWithFixedDelay(this::sample, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sampling and logs the longest wait seen between each pair of sessions.
+     */
+    @Override
+    public void close() {
+
+        this.scheduler.shutdownNow();
+        this.longestWaits.forEach((pair, millis) ->
+                logger.info(String.format("%s was seen waiting for up to %,d ms.", pair, millis)));
+    }
+
+    private void sample() {
+
+        final Set<String> waiting = new HashSet<>();
+        try (Connection connection = this.dataSource.getConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(BLOCKED_SQL);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            while (resultSet.next()) {
+                waiting.add(resultSet.getString(1));
+                final String pair = String.format("%s on a lock held by %s", resultSet.getString(1), resultSet.getString(2));
+                this.longestWaits.merge(pair, resultSet.getLong(3), Math::max);
+            }
+        } catch (SQLException e) {
+            logger.error("Unable to sample locks: {}.", e.getMessage());
+            return;
+        }
+        this.blockedSessions.record(waiting.size());
+    }
+}
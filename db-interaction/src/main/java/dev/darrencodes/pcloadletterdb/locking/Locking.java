@@ -4,12 +4,15 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
 import javax.sql.DataSource;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -24,76 +27,61 @@ public class Locking implements CommandLineRunner {
     private static final Logger logger = LoggerFactory.getLogger(Locking.class);
 
     private final DataSource dataSource;
+    private final boolean virtualThreads;
 
     /**
-     * TimerTask that will allow the application to select and update records in two separate threads. With this
+     * Task that will allow the application to select and update records in two separate threads. With this
      * implementation, one will block the other.
      */
-    private static final class UpdateTask extends TimerTask {
+    private static final class UpdateTask implements Runnable {
 
         private final DataSource dataSource;
         private final long sleepTime;
-
-        private final Timer timer;
+        private final long startDelay;
+        private final LockMetrics lockMetrics;
 
         private int doUpdate() throws SQLException {
 
             try (Connection connection = this.dataSource.getConnection()) {
-                connection.setAutoCommit(false);
-
-                // Key point: include "for update" and set the concurrency type to CONCUR_UPDATABLE.
-                // This works better if you can constrain on a key in the table because the number of rows locked will be smaller.
-                // You may be able to do this with the JdbcTemplate.execute() method, but I was not able to do so. I believe
-                // JdbcTemplate is a bit too clever and re-uses connections in a way that keeps that from working.
-                try (PreparedStatement preparedStatement = connection.prepareStatement(
-                        "select id, locked_val, owner from pc_load_letter.locking where locked_val = false order by id limit 1 for update",
-                        ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE)) {
-
-                    try (ResultSet resultSet = preparedStatement.executeQuery()) {
-
-                        if (!resultSet.next()) {
-                            throw new RuntimeException("No record available to update");
-                        }
-
-                        final long id = resultSet.getLong("id");
-                        logger.info("Updating record with the ID {}.", id);
-
-                        // Artificial delay. The records being updated (and probably more depending on the DB) will
-                        // be locked during this time.
-                        try {
-                            if (this.sleepTime > 0) {
-                                Thread.sleep(this.sleepTime);
-                            }
-                        } catch (InterruptedException e) {
-                            logger.error("Unable to sleep requested time period: {}.", e.getMessage());
-                        }
-
-                        // Make sure the record has not already been updated.
-                        final boolean wasLocked = resultSet.getBoolean("locked_val");
-                        if (wasLocked) {
-                            return 0;
-                        }
-
-                        logger.info("Updating record with the ID {}.", id);
-                        resultSet.updateBoolean("locked_val", true);
-                        resultSet.updateString("owner", Thread.currentThread().getName());
-                        resultSet.updateRow();
-                        connection.commit();
-                        return 1;
+                // Name the session after the thread so LockSampler can tell who is waiting on whom. The connection
+                // goes back to the pool afterwards, so its old name is put back.
+                final String applicationName = connection.getClientInfo("ApplicationName");
+                connection.setClientInfo("ApplicationName", Thread.currentThread().getName());
+                try {
+                    final long start = System.nanoTime();
+                    final int rowsUpdated = claimFirstUnlocked(connection, this.sleepTime, this.lockMetrics);
+                    this.lockMetrics.recordTransaction(Thread.currentThread().getName(), System.nanoTime() - start);
+
+                    if (rowsUpdated < 0) {
+                        throw new RuntimeException("No record available to update");
                     }
+                    return rowsUpdated;
+                } finally {
+                    connection.setClientInfo("ApplicationName", Objects.requireNonNullElse(applicationName, ""));
                 }
             }
         }
 
-        private UpdateTask(final DataSource dataSource, final long sleepTime, final Timer timer) {
+        private UpdateTask(final DataSource dataSource, final long sleepTime, final long startDelay,
+                           final LockMetrics lockMetrics) {
             this.dataSource = dataSource;
             this.sleepTime = sleepTime;
-            this.timer = timer;
+            this.startDelay = startDelay;
+            this.lockMetrics = lockMetrics;
         }
 
         @Override
         public void run() {
 
+            try {
+                if (this.startDelay > 0) {
+                    Thread.sleep(this.startDelay);
+                }
+            } catch (InterruptedException e) {
+                logger.error("Unable to sleep requested time period: {}.", e.getMessage());
+                return;
+            }
+
             // Do in a loop in case we fail to update the record the first time.
             int rowsUpdated = 0;
             while (rowsUpdated == 0) {
@@ -105,15 +93,13 @@ public class Locking implements CommandLineRunner {
                     // doUpdate will return 0 if the row we try to update was already updated.
                     if (rowsUpdated == 0) {
                         logger.warn("Unable to update row, retrying.");
+                        this.lockMetrics.recordRetry(Thread.currentThread().getName());
                     }
                 } catch (SQLException e) {
                     logger.error(e.getMessage());
                     break;
                 }
             }
-
-            // We only want to run this once.
-            this.timer.cancel();
         }
     }
 
@@ -121,21 +107,116 @@ public class Locking implements CommandLineRunner {
         SpringApplication.run(Locking.class, args);
     }
 
-    public Locking(final DataSource dataSource) {
+    /**
+     * Locks the first unlocked record with "select ... for update", waits sleepTime, and then marks it as locked by
+     * the current thread. The transaction is committed if the record was updated and rolled back otherwise.
+     *
+     * @param connection The connection to update with. Auto-commit will be turned off.
+     * @param sleepTime How long to hold the row lock before updating the record.
+     * @return 1 if the record was updated, 0 if it had already been updated by the time it was locked, or -1 if
+     *         there was no record to update.
+     * @throws SQLException Any error will be propagated.
+     */
+    /* default */ static int claimFirstUnlocked(final Connection connection, final long sleepTime) throws SQLException {
+        return claimFirstUnlocked(connection, sleepTime, null);
+    }
+
+    /**
+     * Does the same as claimFirstUnlocked(Connection, long), also recording how long it waited for the row lock.
+     *
+     * @param connection The connection to update with. Auto-commit will be turned off.
+     * @param sleepTime How long to hold the row lock before updating the record.
+     * @param lockMetrics Where to record the lock wait, or null to not record it.
+     * @return 1 if the record was updated, 0 if it had already been updated by the time it was locked, or -1 if
+     *         there was no record to update.
+     * @throws SQLException Any error will be propagated.
+     */
+    /* default */ static int claimFirstUnlocked(final Connection connection, final long sleepTime,
+                                                final LockMetrics lockMetrics) throws SQLException {
+
+        connection.setAutoCommit(false);
+
+        // Key point: include "for update" and set the concurrency type to CONCUR_UPDATABLE.
+        // This works better if you can constrain on a key in the table because the number of rows locked will be smaller.
+        // You may be able to do this with the JdbcTemplate.execute() method, but I was not able to do so. I believe
+        // JdbcTemplate is a bit too clever and re-uses connections in a way that keeps that from working.
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "select id, locked_val, owner from pc_load_letter.locking where locked_val = false order by id limit 1 for update",
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE)) {
+
+            // The query does not return until the row lock is granted, so timing it times the wait.
+            final long lockStart = System.nanoTime();
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (Objects.nonNull(lockMetrics)) {
+                    lockMetrics.recordLockWait(Thread.currentThread().getName(), System.nanoTime() - lockStart);
+                }
+
+                if (!resultSet.next()) {
+                    connection.rollback();
+                    return -1;
+                }
+
+                final long id = resultSet.getLong("id");
+                logger.info("Updating record with the ID {}.", id);
+
+                // Artificial delay. The records being updated (and probably more depending on the DB) will
+                // be locked during this time.
+                try {
+                    if (sleepTime > 0) {
+                        Thread.sleep(sleepTime);
+                    }
+                } catch (InterruptedException e) {
+                    logger.error("Unable to sleep requested time period: {}.", e.getMessage());
+                }
+
+                // Make sure the record has not already been updated.
+                final boolean wasLocked = resultSet.getBoolean("locked_val");
+                if (wasLocked) {
+                    connection.rollback();
+                    return 0;
+                }
+
+                logger.info("Updating record with the ID {}.", id);
+                resultSet.updateBoolean("locked_val", true);
+                resultSet.updateString("owner", Thread.currentThread().getName());
+                resultSet.updateRow();
+                connection.commit();
+                return 1;
+            }
+        }
+    }
+
+    public Locking(final DataSource dataSource,
+                   @Value("${pcloadletter.virtual-threads.enabled:false}") final boolean virtualThreads) {
         this.dataSource = dataSource;
+        this.virtualThreads = virtualThreads;
     }
 
     @Override
     public void run(String... args) {
 
-        // Timers for new threads.
-        final Timer thread1 = new Timer("first-thread");
-        final Timer thread2 = new Timer("second-thread");
-
-        // Make this one start right away, but have a long time between the read and write.
-        thread1.schedule(new UpdateTask(this.dataSource, 15_000, thread1), 0);
+        // Each task gets its own thread, named first-thread and second-thread in the order they are submitted.
+        // Closing the executor waits for both to finish, which matters for virtual threads because they do not keep
+        // the JVM running on their own.
+        // The sampler watches the database for sessions waiting on locks while the tasks run, and is closed after
+        // the executor, so it sees the whole run.
+        // The metrics go to the global registry, where any registry the application publishes to can see them. A
+        // SimpleMeterRegistry is added to it for the run so the summary has something to read from either way.
+        final SimpleMeterRegistry summaryRegistry = new SimpleMeterRegistry();
+        Metrics.addRegistry(summaryRegistry);
+        final LockMetrics lockMetrics = new LockMetrics(Metrics.globalRegistry);
+        try (LockSampler lockSampler = new LockSampler(this.dataSource, Metrics.globalRegistry, 100);
+             ExecutorService executorService = UpdateWorkers.newExecutor(this.virtualThreads, "first-thread",
+                     "second-thread")) {
+
+            // Make this one start right away, but have a long time between the read and write.
+            executorService.execute(new UpdateTask(this.dataSource, 15_000, 0, lockMetrics));
+
+            // Make this one have a brief delay in starting, but read and write in quick succession.
+            executorService.execute(new UpdateTask(this.dataSource, 0, 5_000, lockMetrics));
+        }
 
-        // Make this one have a brief delay in starting, but read and write in quick succession.
-        thread2.schedule(new UpdateTask(this.dataSource, 0, thread2), 5_000);
+        lockMetrics.logSummary();
+        Metrics.removeRegistry(summaryRegistry);
     }
 }
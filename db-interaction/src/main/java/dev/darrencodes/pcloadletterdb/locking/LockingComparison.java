@@ -0,0 +1,188 @@
+package dev.darrencodes.pcloadletterdb.locking;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+/**
+ * Runs the three ways of claiming records side by side: reading and updating with no locking, as NonLocking does;
+ * locking the record across the work, as Locking does; and checking the record is still unlocked when updating it,
+ * as OptimisticClaim does. For each, every record is released and then a number of workers claim records until none
+ * are left, each spending pcloadletter.locking.work-millis between reading a record and updating it.
+ * <p>
+ * More workers and longer work mean more contention. With no locking, more claims succeed than there are records,
+ * because two workers can both claim the same one; the difference is the number of lost updates.
+ */
+//@SpringBootApplication
+public class LockingComparison implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(LockingComparison.class);
+
+    private static final String COUNT_UNLOCKED_SQL = "select count(*) from pc_load_letter.locking where locked_val = false";
+
+    private final DataSource dataSource;
+    private final boolean virtualThreads;
+    private final int workers;
+    private final long workMillis;
+    private final List<String> strategies;
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    /**
+     * Makes one claim on a connection.
+     */
+    @FunctionalInterface
+    private interface Claimer {
+
+        /**
+         * Tries to claim one record.
+         *
+         * @param connection The connection to claim with.
+         * @return The number of records claimed, or -1 if none were found to claim.
+         * @throws SQLException Any error will be propagated.
+         * @throws InterruptedException If the thread is interrupted while working.
+         */
+        int claim(Connection connection) throws SQLException, InterruptedException;
+    }
+
+    public static void main(String[] args) {
+        SpringApplication.run(LockingComparison.class, args);
+    }
+
+    public LockingComparison(final DataSource dataSource,
+                             @Value("${pcloadletter.virtual-threads.enabled:false}") final boolean virtualThreads,
+                             @Value("${pcloadletter.locking.workers:4}") final int workers,
+                             @Value("${pcloadletter.locking.work-millis:50}") final long workMillis,
+                             @Value("${pcloadletter.locking.strategies:non-locking,pessimistic,optimistic}") final List<String> strategies,
+                             @Value("${pcloadletter.locking.optimistic.max-attempts:10}") final int maxAttempts,
+                             @Value("${pcloadletter.locking.optimistic.base-backoff-millis:5}") final long baseBackoffMillis,
+                             @Value("${pcloadletter.locking.optimistic.max-backoff-millis:100}") final long maxBackoffMillis) {
+        this.dataSource = dataSource;
+        this.virtualThreads = virtualThreads;
+        this.workers = workers;
+        this.workMillis = workMillis;
+        this.strategies = strategies;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    @Override
+    public void run(String... args) throws SQLException {
+
+        for (String strategy : this.strategies) {
+            switch (strategy.trim()) {
+                case "non-locking":
+                    this.compare("non-locking", this::claimWithoutLocking);
+                    break;
+                case "pessimistic":
+                    this.compare("pessimistic", connection -> Locking.claimFirstUnlocked(connection, this.workMillis));
+                    break;
+                case "optimistic": {
+                    final OptimisticClaim optimisticClaim = new OptimisticClaim(this.maxAttempts, this.baseBackoffMillis,
+                            this.maxBackoffMillis);
+                    this.compare("optimistic", connection -> optimisticClaim.claim(connection, this.workMillis));
+                    logger.info("optimistic: {} conflicts, {} retries.", optimisticClaim.getConflicts(), optimisticClaim.getRetries());
+                    break;
+                }
+                default:
+                    logger.error("Unknown strategy {}.", strategy);
+            }
+        }
+    }
+
+    // Releases every record, has the workers claim them all with claimer, and reports how it went.
+    private void compare(final String strategy, final Claimer claimer) throws SQLException {
+
+        final int records;
+        try (Connection connection = this.dataSource.getConnection()) {
+            records = SkipLockedQueue.releaseAll(connection);
+        }
+
+        final AtomicInteger claims = new AtomicInteger();
+        final long start = System.nanoTime();
+
+        try (ExecutorService executorService = UpdateWorkers.newExecutor(this.virtualThreads)) {
+            for (int i = 0; i < this.workers; i++) {
+                executorService.execute(() -> {
+                    try {
+                        while (true) {
+                            try (Connection connection = this.dataSource.getConnection()) {
+                                final int claimed = claimer.claim(connection);
+                                if (claimed > 0) {
+                                    claims.addAndGet(claimed);
+                                } else if (claimed < 0 && countUnlocked(connection) == 0) {
+                                    // Locking can find nothing because it lost a race for the last record it saw,
+                                    // so only stop once nothing is left.
+                                    return;
+                                }
+                            }
+                        }
+                    } catch (SQLException e) {
+                        logger.error(e.getMessage());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+        }
+
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info(String.format("%s: %,d workers claimed %,d records in %,d ms (%,.1f claims/second, %,d lost updates).",
+                strategy, this.workers, claims.get(), millis, millis == 0 ? 0.0 : claims.get() * 1_000.0 / millis,
+                Math.max(0, claims.get() - records)));
+    }
+
+    // Reads the first unlocked record and updates it in a separate statement, the way NonLocking does. Nothing stops
+    // another worker from claiming the same record in between.
+    private int claimWithoutLocking(final Connection connection) throws SQLException, InterruptedException {
+
+        final int id;
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "select id from pc_load_letter.locking where locked_val = false order by id limit 1");
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            if (!resultSet.next()) {
+                return -1;
+            }
+            id = resultSet.getInt(1);
+        }
+
+        if (this.workMillis > 0) {
+            Thread.sleep(this.workMillis);
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "update pc_load_letter.locking set locked_val = true, owner = ? where id = ?")) {
+            preparedStatement.setString(1, Thread.currentThread().getName());
+            preparedStatement.setInt(2, id);
+            return preparedStatement.executeUpdate();
+        }
+    }
+
+    private static int countUnlocked(final Connection connection) throws SQLException {
+
+        // Locking leaves auto-commit off, so make sure this reads the latest committed state.
+        if (!connection.getAutoCommit()) {
+            connection.rollback();
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(COUNT_UNLOCKED_SQL);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
@@ -1,11 +1,11 @@
 package dev.darrencodes.pcloadletterdb.locking;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
 import javax.sql.DataSource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -21,27 +21,36 @@ public class NonLocking implements CommandLineRunner {
     private static final Logger logger = LoggerFactory.getLogger(NonLocking.class);
 
     private final DataSource dataSource;
+    private final boolean virtualThreads;
 
     /**
-     * TimerTask that will allow the application to select and update records in two separate threads. With this
+     * Task that will allow the application to select and update records in two separate threads. With this
      * implementation, there is no blocking.
      */
-    private static final class UpdateTask extends TimerTask {
+    private static final class UpdateTask implements Runnable {
 
         private final DataSource dataSource;
         private final long sleepTime;
+        private final long startDelay;
 
-        private final Timer timer;
-
-        private UpdateTask(final DataSource dataSource, final long sleepTime, final Timer timer) {
+        private UpdateTask(final DataSource dataSource, final long sleepTime, final long startDelay) {
             this.dataSource = dataSource;
             this.sleepTime = sleepTime;
-            this.timer = timer;
+            this.startDelay = startDelay;
         }
 
         @Override
         public void run() {
 
+            try {
+                if (this.startDelay > 0) {
+                    Thread.sleep(this.startDelay);
+                }
+            } catch (InterruptedException e) {
+                logger.error("Unable to sleep requested time period: {}.", e.getMessage());
+                return;
+            }
+
             final JdbcTemplate jdbcTemplate = new JdbcTemplate(this.dataSource);
 
             // Select the record to update. Note that this query has `for update` in it for parity with the Locking
@@ -61,9 +70,6 @@ public class NonLocking implements CommandLineRunner {
             // Update the record.
             jdbcTemplate.update("update pc_load_letter.locking set locked_val = true, owner = ? where id = ?", Thread.currentThread().getName(), id);
             logger.info("Updated record with the ID {}.", id);
-
-            // We only want to run these once.
-            this.timer.cancel();
         }
     }
 
@@ -71,21 +77,26 @@ public class NonLocking implements CommandLineRunner {
         SpringApplication.run(NonLocking.class, args);
     }
 
-    public NonLocking(final DataSource dataSource) {
+    public NonLocking(final DataSource dataSource,
+                      @Value("${pcloadletter.virtual-threads.enabled:false}") final boolean virtualThreads) {
         this.dataSource = dataSource;
+        this.virtualThreads = virtualThreads;
     }
 
     @Override
     public void run(String... args) {
 
-        // Timers for new threads.
-        final Timer thread1 = new Timer("first-thread");
-        final Timer thread2 = new Timer("second-thread");
+        // Each task gets its own thread, named first-thread and second-thread in the order they are submitted.
+        // Closing the executor waits for both to finish, which matters for virtual threads because they do not keep
+        // the JVM running on their own.
+        try (ExecutorService executorService = UpdateWorkers.newExecutor(this.virtualThreads, "first-thread",
+                "second-thread")) {
 
-        // Make this one start right away, but have a long time between the read and write.
-        thread1.schedule(new UpdateTask(this.dataSource, 15_000, thread1), 0);
+            // Make this one start right away, but have a long time between the read and write.
+            executorService.execute(new UpdateTask(this.dataSource, 15_000, 0));
 
-        // Make this one have a brief delay in starting, but read and write in quick succession.
-        thread2.schedule(new UpdateTask(this.dataSource, 0, thread2), 5_000);
+            // Make this one have a brief delay in starting, but read and write in quick succession.
+            executorService.execute(new UpdateTask(this.dataSource, 0, 5_000));
+        }
     }
 }
@@ -0,0 +1,127 @@
+package dev.darrencodes.pcloadletterdb.locking;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Claims records from the locking table without holding any locks between reading a record and updating it.
+ * <p>
+ * Like NonLocking, it reads the first unlocked record in one statement and updates it in another, with the work in
+ * between. Unlike NonLocking, the update only applies if the record is still unlocked: "where locked_val = false" is
+ * a compare-and-set. If another worker claimed the record first, the update changes no rows, which is a conflict,
+ * and the claim is retried after a short, random, growing backoff. The row lock the update takes is held only for
+ * the update itself, so for short critical sections this beats holding a lock across the work as Locking does.
+ * <p>
+ * The number of conflicts and retries across every claim is counted so contention can be measured.
+ */
+/* default */ final class OptimisticClaim {
+
+    private static final String SELECT_SQL = "select id from pc_load_letter.locking where locked_val = false order by id limit 1";
+
+    // Key point: "and locked_val = false". The update only succeeds if nobody has claimed the record since it was read.
+    private static final String UPDATE_SQL = "update pc_load_letter.locking set locked_val = true, owner = ? where id = ? and locked_val = false";
+
+    private final int maxAttempts;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     * Constructs a new OptimisticClaim.
+     *
+     * @param maxAttempts The number of times to try to claim a record before giving up.
+     * @param baseBackoffMillis The longest to wait before the first retry. Each retry after that can wait up to twice
+     *                          as long as the one before.
+     * @param maxBackoffMillis The longest to wait before any retry.
+     * @throws IllegalArgumentException If maxAttempts is less than 1 or either backoff is negative.
+     */
+    /* default */ OptimisticClaim(final int maxAttempts, final long baseBackoffMillis, final long maxBackoffMillis) {
+
+        if (maxAttempts < 1 || baseBackoffMillis < 0 || maxBackoffMillis < 0) {
+            throw new IllegalArgumentException("The attempts must be at least 1 and the backoffs cannot be negative.");
+        }
+
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Claims the first unlocked record for the current thread, retrying if another worker claims it first.
+     *
+     * @param connection The connection to claim with. It should have auto-commit on so no locks are held between
+     *                   statements.
+     * @param workMillis How long the work between reading the record and updating it takes.
+     * @return 1 if a record was claimed, 0 if every attempt conflicted, or -1 if there was no record to claim.
+     * @throws SQLException Any error will be propagated.
+     * @throws InterruptedException If the thread is interrupted while working or backing off.
+     */
+    /* default */ int claim(final Connection connection, final long workMillis) throws SQLException, InterruptedException {
+
+        try (PreparedStatement select = connection.prepareStatement(SELECT_SQL);
+             PreparedStatement update = connection.prepareStatement(UPDATE_SQL)) {
+
+            for (int attempt = 1; attempt <= this.maxAttempts; attempt++) {
+
+                final int id;
+                try (ResultSet resultSet = select.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return -1;
+                    }
+                    id = resultSet.getInt(1);
+                }
+
+                // The work happens here, with no locks held.
+                if (workMillis > 0) {
+                    Thread.sleep(workMillis);
+                }
+
+                update.setString(1, Thread.currentThread().getName());
+                update.setInt(2, id);
+                if (update.executeUpdate() == 1) {
+                    return 1;
+                }
+
+                this.conflicts.incrementAndGet();
+                if (attempt < this.maxAttempts) {
+                    this.retries.incrementAndGet();
+                    this.backOff(attempt);
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns the number of times a claim found its record already taken.
+     *
+     * @return The number of conflicts.
+     */
+    /* default */ long getConflicts() {
+        return this.conflicts.get();
+    }
+
+    /**
+     * Returns the number of times a claim was retried after a conflict.
+     *
+     * @return The number of retries.
+     */
+    /* default */ long getRetries() {
+        return this.retries.get();
+    }
+
+    // Waits a random time up to the backoff for the attempt, so workers that conflicted do not all retry together.
+    private void backOff(final int attempt) throws InterruptedException {
+
+        final long ceiling = Math.min(this.maxBackoffMillis, this.baseBackoffMillis << Math.min(attempt - 1, 20));
+        if (ceiling > 0) {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package dev.darrencodes.pcloadletterdb.locking;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Treats the locking table as a work queue that many workers can claim records from at once.
+ * <p>
+ * Locking claims a record by locking the first unlocked one, so every worker queues up behind the same row and
+ * only one gets it; the rest find it already taken and try again. Here, each claim skips rows another transaction
+ * has locked instead of waiting on them, so concurrent workers each get different records, and claims a batch of
+ * records and marks them in the same statement, so a claim is one round trip however many records it takes.
+ */
+/* default */ final class SkipLockedQueue {
+
+    // Key point: "skip locked" in the subquery. Rows another worker is claiming right now are passed over rather than
+    // waited on, and the update and "returning" mark and report the claimed rows without a second round trip.
+    private static final String CLAIM_SQL = "update pc_load_letter.locking set locked_val = true, owner = ? "
+            + "where id in (select id from pc_load_letter.locking where locked_val = false "
+            + "order by id limit ? for update skip locked) "
+            + "returning id";
+
+    private static final String RELEASE_ALL_SQL = "update pc_load_letter.locking set locked_val = false, owner = null";
+
+    private SkipLockedQueue() {
+    }
+
+    /**
+     * Claims up to batchSize unlocked records for owner. If auto-commit is on, the claim is committed when this
+     * returns; otherwise the caller is responsible for committing.
+     *
+     * @param connection The connection to claim with.
+     * @param owner The owner to mark the records with.
+     * @param batchSize The most records to claim.
+     * @return The IDs of the claimed records, which is empty if no unlocked records are left, or if every unlocked
+     *         record is being claimed by another worker.
+     * @throws SQLException Any error will be propagated.
+     */
+    /* default */ static List<Integer> claim(final Connection connection, final String owner, final int batchSize)
+            throws SQLException {
+
+        final List<Integer> ids = new ArrayList<>(batchSize);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(CLAIM_SQL)) {
+            preparedStatement.setString(1, owner);
+            preparedStatement.setInt(2, batchSize);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    ids.add(resultSet.getInt(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Marks every record as unlocked with no owner, so the demonstrations can be run again.
+     *
+     * @param connection The connection to update with.
+     * @return The number of records released.
+     * @throws SQLException Any error will be propagated.
+     */
+    /* default */ static int releaseAll(final Connection connection) throws SQLException {
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(RELEASE_ALL_SQL)) {
+            return preparedStatement.executeUpdate();
+        }
+    }
+}
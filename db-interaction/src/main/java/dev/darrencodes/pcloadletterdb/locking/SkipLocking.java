@@ -0,0 +1,87 @@
+package dev.darrencodes.pcloadletterdb.locking;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+/**
+ * Demonstrates several workers claiming records from the locking table at the same time without blocking each
+ * other, using SkipLockedQueue. Each worker claims batches of records until none are left.
+ */
+//@SpringBootApplication
+public class SkipLocking implements CommandLineRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(SkipLocking.class);
+
+    private final DataSource dataSource;
+    private final boolean virtualThreads;
+    private final int workers;
+    private final int batchSize;
+
+    /**
+     * Task that claims batches of records until there are none left to claim.
+     */
+    private static final class ClaimTask implements Runnable {
+
+        private final DataSource dataSource;
+        private final int batchSize;
+
+        private ClaimTask(final DataSource dataSource, final int batchSize) {
+            this.dataSource = dataSource;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void run() {
+
+            // There is no need to turn off auto-commit. Each claim is a single statement, so it commits as soon as
+            // it runs and the row locks it took are released right away.
+            try (Connection connection = this.dataSource.getConnection()) {
+                List<Integer> ids;
+                while (!(ids = SkipLockedQueue.claim(connection, Thread.currentThread().getName(), this.batchSize)).isEmpty()) {
+                    logger.info("Claimed the records with the IDs {}.", ids);
+                }
+            } catch (SQLException e) {
+                logger.error(e.getMessage());
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        SpringApplication.run(SkipLocking.class, args);
+    }
+
+    public SkipLocking(final DataSource dataSource,
+                       @Value("${pcloadletter.virtual-threads.enabled:false}") final boolean virtualThreads,
+                       @Value("${pcloadletter.locking.workers:4}") final int workers,
+                       @Value("${pcloadletter.locking.batch-size:2}") final int batchSize) {
+        this.dataSource = dataSource;
+        this.virtualThreads = virtualThreads;
+        this.workers = workers;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run(String... args) throws SQLException {
+
+        // Start with every record unlocked so this can be run after the other demonstrations.
+        try (Connection connection = this.dataSource.getConnection()) {
+            logger.info("Released {} records.", SkipLockedQueue.releaseAll(connection));
+        }
+
+        try (ExecutorService executorService = UpdateWorkers.newExecutor(this.virtualThreads)) {
+            for (int i = 0; i < this.workers; i++) {
+                executorService.execute(new ClaimTask(this.dataSource, this.batchSize));
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package dev.darrencodes.pcloadletterdb.locking;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executor the locking demonstrations run their update tasks on. Each task gets a thread of its own,
+ * either a platform thread or, if asked for, a virtual thread. A task that waits on a row lock holds a platform
+ * thread the whole time, while a virtual thread gives its carrier back, so many more waiting tasks can be run
+ * at once.
+ */
+/* default */ final class UpdateWorkers {
+
+    private UpdateWorkers() {
+    }
+
+    /**
+     * Creates an executor that starts a new thread for each task. Threads are named update-1, update-2, and so on,
+     * for the demonstrations that run any number of workers.
+     *
+     * @param virtualThreads If true, tasks are run on virtual threads rather than platform threads.
+     * @return The new executor.
+     */
+    /* default */ static ExecutorService newExecutor(final boolean virtualThreads) {
+
+        final ThreadFactory threadFactory = virtualThreads
+                ? Thread.ofVirtual().name("update-", 1).factory()
+                : Thread.ofPlatform().name("update-", 1).factory();
+        return Executors.newThreadPerTaskExecutor(threadFactory);
+    }
+
+    /**
+     * Creates an executor that starts a new thread for each task, named with each of threadNames in the order the
+     * tasks are started. The names end up in the owner column, so they are the names the demonstrations have
+     * always used. Any threads beyond the names given are named update-n, where n counts every thread started.
+     *
+     * @param virtualThreads If true, tasks are run on virtual threads rather than platform threads.
+     * @param threadNames The names of the threads.
+     * @return The new executor.
+     */
+    /* default */ static ExecutorService newExecutor(final boolean virtualThreads, final String... threadNames) {
+
+        final String[] names = threadNames.clone();
+        final AtomicInteger started = new AtomicInteger();
+        return Executors.newThreadPerTaskExecutor(runnable -> {
+            final int index = started.getAndIncrement();
+            final String name = index < names.length ? names[index] : "update-" + (index + 1);
+            final Thread.Builder builder = virtualThreads ? Thread.ofVirtual() : Thread.ofPlatform();
+            return builder.name(name).unstarted(runnable);
+        });
+    }
+}
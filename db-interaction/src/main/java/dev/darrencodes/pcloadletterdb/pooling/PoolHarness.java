@@ -0,0 +1,274 @@
+package dev.darrencodes.pcloadletterdb.pooling;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.sql.DataSource;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.HdrHistogram.Histogram;
+
+/**
+ * This class drives a connection pool with many concurrent borrowers to show how the pool's size and timeout hold
+ * up under load. PoolingTiming shows why to pool; this shows how big the pool needs to be.
+ * <p>
+ * Each scenario is every combination of the lists below, which can be changed with system properties, for
+ * example -Dpcloadletter.pool.sizes=5,10,20:
+ * <ul>
+ *     <li>pcloadletter.pool.threads: platform, virtual, or both.</li>
+ *     <li>pcloadletter.pool.borrowers: the number of threads borrowing connections at once.</li>
+ *     <li>pcloadletter.pool.sizes: the pool's maximumPoolSize.</li>
+ *     <li>pcloadletter.pool.connection-timeouts: the pool's connectionTimeout in milliseconds.</li>
+ *     <li>pcloadletter.pool.slow-query-ratios: the fraction of borrows that run a slow query rather than "select 1".</li>
+ * </ul>
+ * Each borrower borrows a connection, runs a query, returns it, and repeats for pcloadletter.pool.duration-seconds.
+ * The harness reports the borrows per second that succeeded, percentiles of how long each borrow waited for a
+ * connection, and how many borrows timed out. The percentiles include the borrows that timed out, which waited the
+ * whole connectionTimeout; leaving them out would make an overloaded pool look fast.
+ */
+public class PoolHarness {
+
+    private static final String FAST_QUERY = "select 1";
+    private static final String SLOW_QUERY = "select pg_sleep(?)";
+
+    // Long enough that a scenario's warm-up fills the pool, so the measured run does not include opening connections.
+    private static final long WARM_UP_MILLIS = 1_000;
+
+    // Borrow times are recorded in microseconds, up to a minute, to three significant digits.
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    public static void main(String[] args) throws InterruptedException {
+
+        // This will turn off the logs that Hikari generates.
+        final Logger log = (Logger) org.slf4j.LoggerFactory.getLogger(ch.qos.logback.classic.Logger.ROOT_LOGGER_NAME);
+        log.setLevel(Level.WARN);
+
+        final List<String> threadKinds = stringList("pcloadletter.pool.threads", "platform,virtual");
+        final List<Integer> borrowerCounts = intList("pcloadletter.pool.borrowers", "10,50,200");
+        final List<Integer> poolSizes = intList("pcloadletter.pool.sizes", "10,20");
+        final List<Integer> connectionTimeouts = intList("pcloadletter.pool.connection-timeouts", "250,1000");
+        final List<Double> slowQueryRatios = doubleList("pcloadletter.pool.slow-query-ratios", "0,0.1");
+        final long durationMillis = TimeUnit.SECONDS.toMillis(Long.getLong("pcloadletter.pool.duration-seconds", 10));
+        final double slowQuerySeconds = Long.getLong("pcloadletter.pool.slow-query-millis", 50) / 1_000.0;
+
+        System.out.printf("%-8s %9s %5s %8s %5s %12s %10s %10s %10s %10s %9s\n", "threads", "borrowers", "pool",
+                "timeout", "slow", "borrows/sec", "p50 (us)", "p99 (us)", "p99.9 (us)", "max (us)", "timeouts");
+
+        for (String threadKind : threadKinds) {
+            for (int poolSize : poolSizes) {
+                for (int connectionTimeout : connectionTimeouts) {
+                    for (double slowQueryRatio : slowQueryRatios) {
+                        for (int borrowerCount : borrowerCounts) {
+                            final Scenario scenario = new Scenario("virtual".equals(threadKind), borrowerCount, poolSize,
+                                    connectionTimeout, slowQueryRatio, slowQuerySeconds);
+                            try {
+                                final Result result = run(scenario, PoolHarness::hikari, durationMillis);
+                                final Histogram histogram = result.borrowMicros;
+                                System.out.printf("%-8s %,9d %,5d %,8d %5.2f %,12d %,10d %,10d %,10d %,10d %,9d\n",
+                                        threadKind, borrowerCount, poolSize, connectionTimeout, slowQueryRatio,
+                                        result.borrows * 1_000 / durationMillis,
+                                        histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99),
+                                        histogram.getValueAtPercentile(99.9), histogram.getMaxValue(), result.timeouts);
+                            } catch (SQLException e) {
+                                System.err.println(e.getMessage());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs one scenario: a warm-up that is thrown away, then a measured run.
+     *
+     * @param scenario The scenario to run.
+     * @param poolFactory Creates the pool to borrow from. Any pool can be measured; the harness closes it afterwards
+     *                    if it is AutoCloseable.
+     * @param durationMillis How long to measure for.
+     * @return The measurements.
+     * @throws SQLException If a query fails for any reason other than a borrow timing out.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the borrowers.
+     */
+    /* default */ static Result run(final Scenario scenario, final Function<Scenario, DataSource> poolFactory,
+                                    final long durationMillis) throws SQLException, InterruptedException {
+
+        final DataSource dataSource = poolFactory.apply(scenario);
+        try {
+            borrow(dataSource, scenario, WARM_UP_MILLIS);
+            return borrow(dataSource, scenario, durationMillis);
+        } finally {
+            if (dataSource instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) dataSource).close();
+                } catch (Exception e) {
+                    System.err.println(e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Creates a Hikari pool for a scenario, configured the same way as the other classes in this package.
+    private static DataSource hikari(final Scenario scenario) {
+
+        final HikariConfig config = new HikariConfig();
+        config.setJdbcUrl("jdbc:postgresql://localhost:5432/pc-load-letter-db");
+        config.setUsername("postgres");
+        config.setPassword("p0stgr@s");
+        config.setMaximumPoolSize(scenario.poolSize);
+        config.setConnectionTimeout(scenario.connectionTimeoutMillis);
+        return new HikariDataSource(config);
+    }
+
+    // Has every borrower borrow, query, and return connections until durationMillis has passed, then merges what
+    // each recorded. Each borrower records into its own Histogram so they do not contend on one.
+    private static Result borrow(final DataSource dataSource, final Scenario scenario, final long durationMillis)
+            throws SQLException, InterruptedException {
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        final List<Future<Result>> futures = new ArrayList<>(scenario.borrowerCount);
+
+        // Closing the executor waits for every borrower to finish.
+        try (ExecutorService executorService = Executors.newThreadPerTaskExecutor(scenario.virtualThreads
+                ? Thread.ofVirtual().name("borrower-", 1).factory()
+                : Thread.ofPlatform().name("borrower-", 1).factory())) {
+
+            for (int i = 0; i < scenario.borrowerCount; i++) {
+                futures.add(executorService.submit(() -> {
+                    final Result result = new Result();
+                    while (System.nanoTime() < deadline) {
+                        final long borrowStart = System.nanoTime();
+                        // Key point: a borrower that cannot get a connection within connectionTimeout gets an
+                        // SQLTransientConnectionException. Under load, that is the failure PoolLimits shows.
+                        try (Connection connection = dataSource.getConnection()) {
+                            result.recordBorrow(System.nanoTime() - borrowStart);
+                            query(connection, scenario);
+                        } catch (SQLTransientConnectionException e) {
+                            result.recordTimeout(System.nanoTime() - borrowStart);
+                        }
+                    }
+                    return result;
+                }));
+            }
+        }
+
+        final Result total = new Result();
+        for (Future<Result> future : futures) {
+            try {
+                total.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw new SQLException("A borrower failed.", e.getCause());
+            }
+        }
+        return total;
+    }
+
+    // Runs either the fast or the slow query, chosen at random in the scenario's proportions.
+    private static void query(final Connection connection, final Scenario scenario) throws SQLException {
+
+        if (ThreadLocalRandom.current().nextDouble() < scenario.slowQueryRatio) {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(SLOW_QUERY)) {
+                preparedStatement.setDouble(1, scenario.slowQuerySeconds);
+                preparedStatement.execute();
+            }
+        } else {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(FAST_QUERY)) {
+                preparedStatement.execute();
+            }
+        }
+    }
+
+    private static List<String> stringList(final String property, final String defaultValue) {
+        return Arrays.stream(System.getProperty(property, defaultValue).split(",")).map(String::trim).toList();
+    }
+
+    private static List<Integer> intList(final String property, final String defaultValue) {
+        return stringList(property, defaultValue).stream().map(Integer::valueOf).toList();
+    }
+
+    private static List<Double> doubleList(final String property, final String defaultValue) {
+        return stringList(property, defaultValue).stream().map(Double::valueOf).toList();
+    }
+
+    /**
+     * One combination of the settings the harness sweeps.
+     */
+    /* default */ static final class Scenario {
+
+        private final boolean virtualThreads;
+        private final int borrowerCount;
+        private final int poolSize;
+        private final long connectionTimeoutMillis;
+        private final double slowQueryRatio;
+        private final double slowQuerySeconds;
+
+        /**
+         * Constructs a new Scenario.
+         *
+         * @param virtualThreads True to borrow from virtual threads, false for platform threads.
+         * @param borrowerCount The number of threads borrowing at once.
+         * @param poolSize The most connections the pool may open.
+         * @param connectionTimeoutMillis How long a borrow may wait before it times out.
+         * @param slowQueryRatio The fraction of borrows that run the slow query.
+         * @param slowQuerySeconds How long the slow query takes.
+         */
+        /* default */ Scenario(final boolean virtualThreads, final int borrowerCount, final int poolSize,
+                               final long connectionTimeoutMillis, final double slowQueryRatio,
+                               final double slowQuerySeconds) {
+            this.virtualThreads = virtualThreads;
+            this.borrowerCount = borrowerCount;
+            this.poolSize = poolSize;
+            this.connectionTimeoutMillis = connectionTimeoutMillis;
+            this.slowQueryRatio = slowQueryRatio;
+            this.slowQuerySeconds = slowQuerySeconds;
+        }
+    }
+
+    /**
+     * What a run measured: how long each borrow waited, whether or not it got a connection, how many succeeded, and
+     * how many timed out.
+     */
+    /* default */ static final class Result {
+
+        private final Histogram borrowMicros = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+        private long borrows;
+        private long timeouts;
+
+        private void recordBorrow(final long nanos) {
+            this.recordWait(nanos);
+            this.borrows++;
+        }
+
+        private void recordTimeout(final long nanos) {
+            this.recordWait(nanos);
+            this.timeouts++;
+        }
+
+        private void recordWait(final long nanos) {
+            this.borrowMicros.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_TRACKABLE_MICROS));
+        }
+
+        private void add(final Result other) {
+            this.borrowMicros.add(other.borrowMicros);
+            this.borrows += other.borrows;
+            this.timeouts += other.timeouts;
+        }
+    }
+}
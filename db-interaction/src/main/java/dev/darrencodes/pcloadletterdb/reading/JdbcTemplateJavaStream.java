@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.core.env.Environment;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 
@@ -23,6 +24,7 @@ public class JdbcTemplateJavaStream implements CommandLineRunner {
     private static final Logger logger = LoggerFactory.getLogger(JdbcTemplateJavaStream.class);
 
     private final DataSource dataSource;
+    private final ReaderSettings readerSettings;
 
     /**
      * Consumer that will log each String passed to it and count how many Strings it has consumed.
@@ -47,27 +49,44 @@ public class JdbcTemplateJavaStream implements CommandLineRunner {
         SpringApplication.run(JdbcTemplateJavaStream.class, args);
     }
 
-    public JdbcTemplateJavaStream(final DataSource dataSource) {
+    public JdbcTemplateJavaStream(final DataSource dataSource, final Environment environment) {
         this.dataSource = dataSource;
+        this.readerSettings = ReaderSettings.from(environment);
     }
 
     @Override
     public void run(String... args) {
 
+        logger.info("Reading with {}.", this.readerSettings);
         final Instant start = Instant.now();
 
-        final JdbcTemplate jdbcTemplate = new JdbcTemplate(this.dataSource);
-        jdbcTemplate.setFetchSize(100);
-
-        final RowMapper<String> rowMapper = (rs, i) -> rs.getString("text_val");
         final CountingConsumer countingConsumer = new CountingConsumer();
-
-        try (Stream<String> textStream = jdbcTemplate.queryForStream("select text_val from pc_load_letter.source", rowMapper)) {
-            textStream.forEach(countingConsumer);
-        }
+        read(this.dataSource, this.readerSettings, countingConsumer);
 
         final Instant end = Instant.now();
         logger.info(String.format("%,d rows processed in %,d milliseconds.", countingConsumer.getRowsProcessed(),
                 end.toEpochMilli() - start.toEpochMilli()));
     }
+
+    /**
+     * Reads the text of every record in the source table as a Stream, passing each to textConsumer.
+     *
+     * @param dataSource The DataSource to read from.
+     * @param readerSettings The settings to read with.
+     * @param textConsumer What to do with each record's text.
+     */
+    /* default */ static void read(final DataSource dataSource, final ReaderSettings readerSettings,
+                                   final Consumer<String> textConsumer) {
+
+        final JdbcTemplate jdbcTemplate = readerSettings.jdbcTemplate(dataSource);
+        final RowMapper<String> rowMapper = readerSettings.adaptive((RowMapper<String>) (rs, i) -> rs.getString("text_val"));
+
+        // Key point: the fetch size only takes effect with auto-commit off, so the Stream has to be opened and
+        // consumed inside a transaction.
+        readerSettings.transactionTemplate(dataSource).executeWithoutResult(status -> {
+            try (Stream<String> textStream = jdbcTemplate.queryForStream("select text_val from pc_load_letter.source", rowMapper)) {
+                textStream.forEach(textConsumer);
+            }
+        });
+    }
 }
@@ -29,10 +29,21 @@ public class JdbcTemplateLoadToList implements CommandLineRunner {
     @Override
     public void run(String... args) {
 
-        final JdbcTemplate jdbcTemplate = new JdbcTemplate(this.dataSource);
+        final List<String> allIds = read(this.dataSource);
+        allIds.forEach(s -> System.out.printf("%s\n", Util.abbreviate(s, 50)));
+    }
+
+    /**
+     * Reads the text of every record in the source table into a List.
+     *
+     * @param dataSource The DataSource to read from.
+     * @return The text of every record.
+     */
+    /* default */ static List<String> read(final DataSource dataSource) {
+
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
 
         final RowMapper<String> rowMapper = (rs, i) -> rs.getString("text_val");
-        final List<String> allIds = jdbcTemplate.query("select text_val from pc_load_letter.source", rowMapper);
-        allIds.forEach(s -> System.out.printf("%s\n", Util.abbreviate(s, 50)));
+        return jdbcTemplate.query("select text_val from pc_load_letter.source", rowMapper);
     }
 }
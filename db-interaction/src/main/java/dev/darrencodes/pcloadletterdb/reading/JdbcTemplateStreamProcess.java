@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.core.env.Environment;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowCallbackHandler;
 
@@ -22,6 +23,7 @@ public class JdbcTemplateStreamProcess implements CommandLineRunner {
     private static final Logger logger = LoggerFactory.getLogger(JdbcTemplateStreamProcess.class);
 
     private final DataSource dataSource;
+    private final ReaderSettings readerSettings;
 
     /**
      * RowCallbackHandler that will log the text from each record in the ResultSet and
@@ -49,22 +51,41 @@ public class JdbcTemplateStreamProcess implements CommandLineRunner {
         SpringApplication.run(JdbcTemplateStreamProcess.class, args);
     }
 
-    public JdbcTemplateStreamProcess(final DataSource dataSource) {
+    public JdbcTemplateStreamProcess(final DataSource dataSource, final Environment environment) {
         this.dataSource = dataSource;
+        this.readerSettings = ReaderSettings.from(environment);
     }
 
     @Override
     public void run(String... args) {
 
+        logger.info("Reading with {}.", this.readerSettings);
         final Instant start = Instant.now();
 
-        final JdbcTemplate jdbcTemplate = new JdbcTemplate(this.dataSource);
-
         final CountingRowCallbackHandler rowCallbackHandler = new CountingRowCallbackHandler();
-        jdbcTemplate.query("select text_val from pc_load_letter.source", rowCallbackHandler);
+        read(this.dataSource, this.readerSettings, rowCallbackHandler);
 
         final Instant end = Instant.now();
         logger.info(String.format("%,d rows processed in %,d milliseconds.", rowCallbackHandler.getRowsProcessed(),
                 end.toEpochMilli() - start.toEpochMilli()));
     }
+
+    /**
+     * Reads every record in the source table, passing each row to rowCallbackHandler.
+     *
+     * @param dataSource The DataSource to read from.
+     * @param readerSettings The settings to read with.
+     * @param rowCallbackHandler The handler to pass each row to.
+     */
+    /* default */ static void read(final DataSource dataSource, final ReaderSettings readerSettings,
+                                   final RowCallbackHandler rowCallbackHandler) {
+
+        final JdbcTemplate jdbcTemplate = readerSettings.jdbcTemplate(dataSource);
+        final RowCallbackHandler adaptiveRowCallbackHandler = readerSettings.adaptive(rowCallbackHandler);
+
+        // Key point: run the query inside a transaction. Without one, auto-commit is on and the driver reads the
+        // whole ResultSet into memory before handing back the first row, no matter what the fetch size is.
+        readerSettings.transactionTemplate(dataSource).executeWithoutResult(status ->
+                jdbcTemplate.query("select text_val from pc_load_letter.source", adaptiveRowCallbackHandler));
+    }
 }
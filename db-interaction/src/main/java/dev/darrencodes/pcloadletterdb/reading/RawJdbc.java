@@ -1,7 +1,13 @@
 package dev.darrencodes.pcloadletterdb.reading;
 
+import java.io.IOException;
 import java.sql.*;
 import java.time.Instant;
+import java.util.Objects;
+import java.util.function.ObjIntConsumer;
+
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.support.ResourcePropertySource;
 
 /**
  * This class provides an example of using raw JDBC to read and process a large ResultSet.
@@ -10,32 +16,27 @@ public class RawJdbc {
 
     public static void main(String[] args) {
 
+        final ReaderSettings readerSettings;
+        try {
+            readerSettings = ReaderSettings.from(environment());
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        System.out.printf("Reading with %s.\n", readerSettings);
+
         // Make the connection. This should be in a try-with-resources block.
         try (Connection connection = DriverManager.getConnection("jdbc:postgresql://localhost:5432/pc-load-letter-db",
                 "postgres", "p0stgr@s")) {
 
-
             // Timing starts after the connection to better mimic the timings of the classes using JdbcTemplate.
             final Instant start = Instant.now();
-            int rowsProcessed = 0;
-
-            // ou can provide hints about what you want to do with the results. Doing so may provide efficiencies and
-            // keep you from having unintended results. This should be in a try-with-resources block.
-            try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
-
-                // Open the ResultSet. This should be in a try-with-resources block.
-                try (ResultSet resultSet = statement.executeQuery("select text_val from pc_load_letter.source")) {
-
-                    // Loop through the results and process them.
-                    while (resultSet.next()) {
-                        final String s = resultSet.getString("text_val");
-                        rowsProcessed++;
-                        if (rowsProcessed % 1_000 == 0) {
-                            System.out.printf("%s\n", Util.abbreviate(s, 50));
-                        }
-                    }
+
+            final int rowsProcessed = read(connection, readerSettings, (s, rowNum) -> {
+                if (rowNum % 1_000 == 0) {
+                    System.out.printf("%s\n", Util.abbreviate(s, 50));
                 }
-            }
+            });
 
             // The timing here will be a bit different from the others since this does not go through the logger, but it's
             // good enough for this demonstration.
@@ -45,4 +46,56 @@ public class RawJdbc {
             System.err.println(e.getMessage());
         }
     }
+
+    // Reads application.properties the way the Spring Boot readers do, with system properties and environment
+    // variables taking precedence over it.
+    private static StandardEnvironment environment() throws IOException {
+
+        final StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addLast(new ResourcePropertySource("classpath:application.properties"));
+        return environment;
+    }
+
+    /**
+     * Reads the text of every record in the source table, passing each to textConsumer along with its row number,
+     * starting at 1.
+     *
+     * @param connection The connection to read with. It will be left with auto-commit off.
+     * @param readerSettings The settings to read with.
+     * @param textConsumer What to do with each record's text.
+     * @return The number of rows read.
+     * @throws SQLException Any error will be propagated.
+     */
+    /* default */ static int read(final Connection connection, final ReaderSettings readerSettings,
+                                  final ObjIntConsumer<String> textConsumer) throws SQLException {
+
+        // Key point: turn auto-commit off. With it on, the driver reads the whole ResultSet into memory before
+        // handing back the first row, no matter what the fetch size is.
+        readerSettings.configure(connection);
+
+        int rowsProcessed = 0;
+
+        // ou can provide hints about what you want to do with the results. Doing so may provide efficiencies and
+        // keep you from having unintended results. This should be in a try-with-resources block.
+        try (Statement statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            readerSettings.configure(statement);
+            final AdaptiveFetchSize adaptiveFetchSize = readerSettings.newAdaptiveFetchSize();
+
+            // Open the ResultSet. This should be in a try-with-resources block.
+            try (ResultSet resultSet = statement.executeQuery("select text_val from pc_load_letter.source")) {
+
+                // Loop through the results and process them.
+                while (resultSet.next()) {
+                    if (Objects.nonNull(adaptiveFetchSize)) {
+                        adaptiveFetchSize.observe(resultSet);
+                    }
+                    rowsProcessed++;
+                    textConsumer.accept(resultSet.getString("text_val"), rowsProcessed);
+                }
+            }
+        }
+        connection.commit();
+
+        return rowsProcessed;
+    }
 }
@@ -0,0 +1,192 @@
+package dev.darrencodes.pcloadletterdb.reading;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Objects;
+import javax.sql.DataSource;
+
+import org.springframework.core.env.PropertyResolver;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * The settings every reader applies to the connection and statement it reads with.
+ * <p>
+ * Key point: the PostgreSQL driver ignores the fetch size and reads the entire ResultSet into memory before
+ * returning the first row unless auto-commit is off. Turning it off lets the driver read through a server-side
+ * cursor, fetchSize rows at a time. The transaction is marked read-only so the database knows no locks will be
+ * needed, and a statement timeout keeps a runaway query from holding a connection forever.
+ * <p>
+ * Each setting can be changed with a system property, for example -Dpcloadletter.reader.fetch-size=5000. The
+ * Spring Boot applications also pick them up from application.properties.
+ * <p>
+ * db-interaction and web-stream are built separately and share no code, so each has a copy of this class and of
+ * AdaptiveFetchSize. Keep the copies the same.
+ */
+/* default */ final class ReaderSettings {
+
+    private static final int DEFAULT_FETCH_SIZE = 1_000;
+
+    private final int fetchSize;
+    private final boolean readOnly;
+    private final int statementTimeoutSeconds;
+    private final long fetchByteBudget;
+
+    /**
+     * Constructs a new ReaderSettings.
+     *
+     * @param fetchSize The number of rows to fetch in each round trip to the database. If fetchByteBudget is set,
+     *                  this is only used for the first fetch.
+     * @param readOnly True to read in a read-only transaction.
+     * @param statementTimeoutSeconds The number of seconds a query may run before it is cancelled, or 0 for no limit.
+     * @param fetchByteBudget The number of bytes to aim to fetch in each round trip, or 0 to always use fetchSize.
+     * @throws IllegalArgumentException If fetchSize is less than 1.
+     */
+    /* default */ ReaderSettings(final int fetchSize, final boolean readOnly, final int statementTimeoutSeconds,
+                                 final long fetchByteBudget) {
+
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("The fetch size must be at least 1.");
+        }
+
+        this.fetchSize = fetchSize;
+        this.readOnly = readOnly;
+        this.statementTimeoutSeconds = statementTimeoutSeconds;
+        this.fetchByteBudget = fetchByteBudget;
+    }
+
+    /**
+     * Reads the settings from properties, using the defaults for any that are not set. Outside of Spring, pass a
+     * StandardEnvironment to read them from system properties and environment variables.
+     *
+     * @param propertyResolver Where to read the settings from.
+     * @return The settings.
+     */
+    /* default */ static ReaderSettings from(final PropertyResolver propertyResolver) {
+        return new ReaderSettings(
+                propertyResolver.getProperty("pcloadletter.reader.fetch-size", Integer.class, DEFAULT_FETCH_SIZE),
+                propertyResolver.getProperty("pcloadletter.reader.read-only", Boolean.class, true),
+                propertyResolver.getProperty("pcloadletter.reader.statement-timeout-seconds", Integer.class, 0),
+                propertyResolver.getProperty("pcloadletter.reader.fetch-byte-budget", Long.class, 0L));
+    }
+
+    /**
+     * Turns auto-commit off so the driver reads through a cursor and, if asked for, makes the connection read-only.
+     * The caller is responsible for ending the transaction.
+     *
+     * @param connection The connection to configure.
+     * @throws SQLException Any error will be propagated.
+     */
+    /* default */ void configure(final Connection connection) throws SQLException {
+
+        connection.setAutoCommit(false);
+        connection.setReadOnly(this.readOnly);
+    }
+
+    /**
+     * Sets the fetch size and statement timeout of a statement.
+     *
+     * @param statement The statement to configure.
+     * @throws SQLException Any error will be propagated.
+     */
+    /* default */ void configure(final Statement statement) throws SQLException {
+
+        statement.setFetchSize(this.fetchSize);
+        if (this.statementTimeoutSeconds > 0) {
+            statement.setQueryTimeout(this.statementTimeoutSeconds);
+        }
+    }
+
+    /**
+     * Creates a JdbcTemplate that sets the fetch size and statement timeout on each statement it runs.
+     *
+     * @param dataSource The DataSource to read from.
+     * @return The JdbcTemplate.
+     */
+    /* default */ JdbcTemplate jdbcTemplate(final DataSource dataSource) {
+
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.setFetchSize(this.fetchSize);
+        if (this.statementTimeoutSeconds > 0) {
+            jdbcTemplate.setQueryTimeout(this.statementTimeoutSeconds);
+        }
+        return jdbcTemplate;
+    }
+
+    /**
+     * Creates a TransactionTemplate for reads. While a callback runs inside it, auto-commit is off, so a
+     * JdbcTemplate using the same DataSource reads through a cursor.
+     *
+     * @param dataSource The DataSource to read from.
+     * @return The TransactionTemplate.
+     */
+    /* default */ TransactionTemplate transactionTemplate(final DataSource dataSource) {
+
+        final TransactionTemplate transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        transactionTemplate.setReadOnly(this.readOnly);
+        if (this.statementTimeoutSeconds > 0) {
+            transactionTemplate.setTimeout(this.statementTimeoutSeconds);
+        }
+        return transactionTemplate;
+    }
+
+    /**
+     * Wraps a RowCallbackHandler so that it adjusts the fetch size to the byte budget as it goes. If there is no
+     * byte budget, the handler is returned as is.
+     *
+     * @param rowCallbackHandler The handler to wrap.
+     * @return The wrapped handler.
+     */
+    /* default */ RowCallbackHandler adaptive(final RowCallbackHandler rowCallbackHandler) {
+
+        final AdaptiveFetchSize adaptiveFetchSize = this.newAdaptiveFetchSize();
+        if (Objects.isNull(adaptiveFetchSize)) {
+            return rowCallbackHandler;
+        }
+
+        return rs -> {
+            adaptiveFetchSize.observe(rs);
+            rowCallbackHandler.processRow(rs);
+        };
+    }
+
+    /**
+     * Wraps a RowMapper so that it adjusts the fetch size to the byte budget as it goes. If there is no byte budget,
+     * the mapper is returned as is.
+     *
+     * @param rowMapper The mapper to wrap.
+     * @param <T> The type the mapper maps each row to.
+     * @return The wrapped mapper.
+     */
+    /* default */ <T> RowMapper<T> adaptive(final RowMapper<T> rowMapper) {
+
+        final AdaptiveFetchSize adaptiveFetchSize = this.newAdaptiveFetchSize();
+        if (Objects.isNull(adaptiveFetchSize)) {
+            return rowMapper;
+        }
+
+        return (rs, rowNum) -> {
+            adaptiveFetchSize.observe(rs);
+            return rowMapper.mapRow(rs, rowNum);
+        };
+    }
+
+    /**
+     * Creates an AdaptiveFetchSize for a ResultSet read by hand.
+     *
+     * @return The AdaptiveFetchSize, or null if there is no byte budget.
+     */
+    /* default */ AdaptiveFetchSize newAdaptiveFetchSize() {
+        return this.fetchByteBudget > 0 ? new AdaptiveFetchSize(this.fetchByteBudget, this.fetchSize) : null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("fetch size %,d, read-only %s, statement timeout %,d seconds, fetch byte budget %,d",
+                this.fetchSize, this.readOnly, this.statementTimeoutSeconds, this.fetchByteBudget);
+    }
+}
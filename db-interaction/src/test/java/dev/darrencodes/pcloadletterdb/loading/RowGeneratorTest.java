@@ -0,0 +1,151 @@
+package dev.darrencodes.pcloadletterdb.loading;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the rows a RowGenerator produces depend only on its seed and each row's ID.
+ */
+class RowGeneratorTest {
+
+    private static final long SEED = 42L;
+    private static final int MAX_LENGTH = 300;
+
+    @Test
+    void sameSeedGivesSameRows() {
+        assertEquals(read(new RowGenerator(SEED, MAX_LENGTH), 0, 2_345),
+                read(new RowGenerator(SEED, MAX_LENGTH), 0, 2_345));
+    }
+
+    @Test
+    void differentSeedsGiveDifferentRows() {
+        assertNotEquals(read(new RowGenerator(SEED, MAX_LENGTH), 0, 100),
+                read(new RowGenerator(SEED + 1, MAX_LENGTH), 0, 100));
+    }
+
+    @Test
+    void rowsWithDifferentIdsDiffer() {
+
+        final RowGenerator rowGenerator = new RowGenerator(SEED, MAX_LENGTH);
+        final List<String> first = texts(read(rowGenerator, 0, 100));
+        final List<String> second = texts(read(rowGenerator, 100, 100));
+        assertNotEquals(first, second);
+    }
+
+    @Test
+    void rowsDoNotDependOnHowTheIdsAreSplit() {
+
+        final RowGenerator rowGenerator = new RowGenerator(SEED, MAX_LENGTH);
+        final List<Row> whole = read(rowGenerator, 0, 1_000);
+
+        // Chunks of a different size, starting part of the way through a batch, give the same rows.
+        final List<Row> chunked = new ArrayList<>();
+        for (int start = 0; start < 1_000; start += 333) {
+            chunked.addAll(read(rowGenerator, start, Math.min(333, 1_000 - start)));
+        }
+        assertEquals(whole, chunked);
+        assertEquals(whole.subList(417, 600), read(rowGenerator.preGenerate(417, 183), 417, 183));
+    }
+
+    @Test
+    void numbersRowsFromTheStart() {
+
+        final List<Row> rows = read(new RowGenerator(SEED, MAX_LENGTH), 500, 1_001);
+        assertEquals(1_001, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            assertEquals(500 + i, rows.get(i).id);
+        }
+    }
+
+    @Test
+    void generatesShortAlphanumericText() {
+
+        for (Row row : read(new RowGenerator(SEED, MAX_LENGTH), 0, 1_000)) {
+            assertTrue(row.text.length() < MAX_LENGTH);
+            assertTrue(row.text.chars().allMatch(Character::isLetterOrDigit), row.text);
+        }
+    }
+
+    @Test
+    void preGeneratedRowsAreTheSame() {
+
+        final RowGenerator rowGenerator = new RowGenerator(SEED, MAX_LENGTH);
+        final RowGenerator preGenerated = rowGenerator.preGenerate(0, 600).preGenerate(600, 777);
+
+        assertEquals(read(rowGenerator, 0, 600), read(preGenerated, 0, 600));
+        assertEquals(read(rowGenerator, 600, 777), read(preGenerated, 600, 777));
+        // Replaying does not use the rows up.
+        assertEquals(read(rowGenerator, 600, 777), read(preGenerated, 600, 777));
+        // A stream that was not pre-generated is generated as usual.
+        assertEquals(read(rowGenerator, 5, 50), read(preGenerated, 5, 50));
+    }
+
+    @Test
+    void exposesTextAsAsciiBytes() {
+
+        try (RowGenerator.RowStream rows = new RowGenerator(SEED, MAX_LENGTH).stream(0, 10)) {
+            while (rows.next()) {
+                final byte[] bytes = new byte[rows.getLength()];
+                System.arraycopy(rows.getBuffer(), rows.getOffset(), bytes, 0, bytes.length);
+                assertArrayEquals(rows.getText().getBytes(StandardCharsets.US_ASCII), bytes);
+            }
+            assertFalse(rows.next());
+        }
+    }
+
+    @Test
+    void rejectsMaximumLengthsBelowOne() {
+        assertThrows(IllegalArgumentException.class, () -> new RowGenerator(SEED, 0));
+    }
+
+    private static List<Row> read(final RowGenerator rowGenerator, final int start, final int count) {
+
+        final List<Row> rows = new ArrayList<>(count);
+        try (RowGenerator.RowStream rowStream = rowGenerator.stream(start, count)) {
+            while (rowStream.next()) {
+                rows.add(new Row(rowStream.getId(), rowStream.getText()));
+            }
+        }
+        return rows;
+    }
+
+    private static List<String> texts(final List<Row> rows) {
+        return rows.stream().map(row -> row.text).toList();
+    }
+
+    private static final class Row {
+
+        private final int id;
+        private final String text;
+
+        private Row(final int id, final String text) {
+            this.id = id;
+            this.text = text;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Row && ((Row) other).id == this.id && ((Row) other).text.equals(this.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.id + this.text.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return this.id + ":" + this.text;
+        }
+    }
+}
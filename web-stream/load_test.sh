@@ -0,0 +1,28 @@
+#!/usr/bin/env bash
+# Starts CONCURRENCY exports at once, each read by a client limited to RATE, and reports how many finished and
+# how long they took. Run it once against the application started normally and once against it started with
+# --pcloadletter.virtual-threads.enabled=true, for example:
+#
+#   ./gradlew bootRun --args='--server.tomcat.threads.max=50'
+#   ./gradlew bootRun --args='--server.tomcat.threads.max=50 --pcloadletter.virtual-threads.enabled=true'
+#
+# The exports are chunked so each only holds a pooled connection while it reads a chunk; a single-query export
+# holds one for its whole duration, which makes the pool the limit no matter how requests are run.
+
+CONCURRENCY=${CONCURRENCY:-200}
+RATE=${RATE:-2M}
+URL=${URL:-"localhost:8080?chunked=true&direct=true"}
+
+START=$(date +%s)
+
+# Print the status and total time of each export, one per line.
+seq "$CONCURRENCY" | xargs -P "$CONCURRENCY" -I {} \
+curl -s -o /dev/null --limit-rate "$RATE" -w "%{http_code} %{time_starttransfer} %{time_total}\n" "$URL" \
+> load_test_results.txt
+
+END=$(date +%s)
+
+echo "Exports started:   $CONCURRENCY"
+echo "Exports succeeded: $(grep -c '^200 ' load_test_results.txt)"
+echo "Wall clock time:   $((END - START)) seconds"
+sort -k2 -n load_test_results.txt | awk '{ ttfb[NR] = $2 } END { print "Median time to first byte: " ttfb[int((NR + 1) / 2)] " seconds"; print "Slowest time to first byte: " ttfb[NR] " seconds" }'
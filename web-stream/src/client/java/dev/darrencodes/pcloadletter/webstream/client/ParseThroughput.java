@@ -0,0 +1,276 @@
+package dev.darrencodes.pcloadletter.webstream.client;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+/**
+ * Downloads the same export as a JSON array, as newline-delimited JSON, and as length-prefixed CBOR, then measures
+ * how fast a client can parse each one into objects.
+ * <p>
+ * Each file is parsed once on a single thread, the way a client reading the response would. NDJSON and CBOR are
+ * also split between pcloadletter.parse.workers threads and parsed in parallel: an NDJSON file can be cut at any
+ * newline, and CBOR records can be found by reading only their lengths. A JSON array has to be parsed from the
+ * start to know where any record begins, so it cannot be split. The exports are downloaded to files first so the
+ * network is not part of the measurement; the best of pcloadletter.parse.iterations runs is reported.
+ * <p>
+ * The application has to be running.
+ */
+public class ParseThroughput {
+
+    private static final String URL = System.getProperty("pcloadletter.parse.url", "http://localhost:8080");
+    private static final List<String> FORMATS =
+            Arrays.asList(System.getProperty("pcloadletter.parse.formats", "json,ndjson,cbor").split(","));
+    private static final int WORKERS = Integer.getInteger("pcloadletter.parse.workers",
+            Runtime.getRuntime().availableProcessors());
+    private static final int ITERATIONS = Integer.getInteger("pcloadletter.parse.iterations", 3);
+
+    private static final ObjectReader JSON_READER = new ObjectMapper().readerFor(Row.class);
+    private static final ObjectReader CBOR_READER = new ObjectMapper(new CBORFactory()).readerFor(Row.class);
+
+    /**
+     * What a client would parse each record into.
+     */
+    public static final class Row {
+        public long id;
+        public String text;
+    }
+
+    /**
+     * Parses some part of a file and returns the number of records it parsed.
+     */
+    @FunctionalInterface
+    private interface Parser {
+
+        long parse(Path file) throws IOException, InterruptedException, ExecutionException;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+
+        final HttpClient httpClient = HttpClient.newHttpClient();
+
+        for (String format : FORMATS) {
+
+            final Path file = Files.createTempFile("pcloadletter-" + format.trim(), ".out");
+            try {
+                // direct=true is the same output for JSON and is how the other two are always written.
+                final HttpResponse<Path> response = httpClient.send(HttpRequest.newBuilder(
+                        URI.create(URL + "?direct=true&format=" + format.trim())).build(),
+                        HttpResponse.BodyHandlers.ofFile(file));
+                // Otherwise the error page would be measured as if it were the export.
+                if (response.statusCode() < 200 || response.statusCode() > 299) {
+                    throw new IOException(String.format("Downloading the %s export failed with status %d.",
+                            format.trim(), response.statusCode()));
+                }
+                final long bytes = Files.size(file);
+
+                switch (format.trim()) {
+                    case "json":
+                        measure("json", "1 thread", file, bytes, ParseThroughput::parseJson);
+                        break;
+                    case "ndjson":
+                        measure("ndjson", "1 thread", file, bytes, ParseThroughput::parseJson);
+                        measure("ndjson", WORKERS + " threads", file, bytes, ParseThroughput::parseNdjsonInParallel);
+                        break;
+                    case "cbor":
+                        measure("cbor", "1 thread", file, bytes, ParseThroughput::parseCbor);
+                        measure("cbor", WORKERS + " threads", file, bytes, ParseThroughput::parseCborInParallel);
+                        break;
+                    default:
+                        System.out.printf("Unknown format %s.%n", format);
+                }
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    // Runs parser over the file ITERATIONS times and prints the best run.
+    private static void measure(final String format, final String threads, final Path file, final long bytes,
+                                final Parser parser) throws IOException, InterruptedException, ExecutionException {
+
+        long rows = 0;
+        long bestNanos = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = System.nanoTime();
+            rows = parser.parse(file);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+
+        final double seconds = bestNanos / 1_000_000_000.0;
+        System.out.printf("%-6s %-10s %,15d bytes %,12d rows %,8d ms %,14.0f rows/second %,10.1f MB/second%n",
+                format, threads, bytes, rows, bestNanos / 1_000_000, rows / seconds, bytes / seconds / 1_000_000);
+    }
+
+    // Parses a JSON array or NDJSON from the start. Jackson unwraps a top-level array and reads values separated by
+    // whitespace the same way, so this is how a client would read either.
+    private static long parseJson(final Path file) throws IOException {
+
+        long rows = 0;
+        try (MappingIterator<Row> iterator = JSON_READER.readValues(file.toFile())) {
+            while (iterator.hasNextValue()) {
+                iterator.nextValue();
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static long parseCbor(final Path file) throws IOException {
+
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            return parseCborFrames(inputStream, Long.MAX_VALUE);
+        }
+    }
+
+    // Reads up to maxBytes worth of length-prefixed CBOR records from inputStream.
+    private static long parseCborFrames(final InputStream inputStream, final long maxBytes) throws IOException {
+
+        final DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(inputStream, 65_536));
+        byte[] record = new byte[256];
+        long rows = 0;
+        long read = 0;
+
+        while (read < maxBytes) {
+            final int length;
+            try {
+                length = dataInputStream.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (length > record.length) {
+                record = new byte[length];
+            }
+            dataInputStream.readFully(record, 0, length);
+            CBOR_READER.readValue(record, 0, length);
+            read += Integer.BYTES + length;
+            rows++;
+        }
+        return rows;
+    }
+
+    // Cuts the file into one range per worker. Each worker parses every line that starts in its range.
+    private static long parseNdjsonInParallel(final Path file) throws InterruptedException, ExecutionException, IOException {
+
+        final long size = Files.size(file);
+        final List<Callable<Long>> tasks = new ArrayList<>();
+        for (int i = 0; i < WORKERS; i++) {
+            final long start = size * i / WORKERS;
+            final long end = size * (i + 1) / WORKERS;
+            tasks.add(() -> parseNdjsonRange(file, start, end));
+        }
+        return runAll(tasks);
+    }
+
+    private static long parseNdjsonRange(final Path file, final long start, final long end) throws IOException {
+
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+            // Start from the byte before the range and skip to the end of that line, so a line that starts exactly
+            // at the start of the range is kept and one that started in the previous range is not.
+            long position = Math.max(0, start - 1);
+            final InputStream inputStream = new BufferedInputStream(Channels.newInputStream(fileChannel.position(position)), 65_536);
+            if (start > 0) {
+                int b;
+                do {
+                    b = inputStream.read();
+                    position++;
+                } while (b != '\n' && b != -1);
+            }
+
+            byte[] line = new byte[256];
+            long rows = 0;
+            while (position < end) {
+                int length = 0;
+                int b;
+                while ((b = inputStream.read()) != '\n' && b != -1) {
+                    if (length == line.length) {
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[length++] = (byte) b;
+                }
+                position += length + 1;
+                if (length > 0) {
+                    JSON_READER.readValue(line, 0, length);
+                    rows++;
+                }
+                if (b == -1) {
+                    break;
+                }
+            }
+            return rows;
+        }
+    }
+
+    // Finds where to split the file by reading only the length of each record, then has each worker parse its
+    // share. The time to find the splits is part of the measurement.
+    private static long parseCborInParallel(final Path file) throws InterruptedException, ExecutionException, IOException {
+
+        final long size = Files.size(file);
+        final long[] splits = new long[WORKERS + 1];
+        splits[WORKERS] = size;
+
+        try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 65_536))) {
+            long position = 0;
+            int next = 1;
+            while (next < WORKERS && position < size) {
+                if (position >= size * next / WORKERS) {
+                    splits[next++] = position;
+                }
+                final int length = dataInputStream.readInt();
+                dataInputStream.skipNBytes(length);
+                position += Integer.BYTES + length;
+            }
+            while (next < WORKERS) {
+                splits[next++] = size;
+            }
+        }
+
+        final List<Callable<Long>> tasks = new ArrayList<>();
+        for (int i = 0; i < WORKERS; i++) {
+            final long start = splits[i];
+            final long length = splits[i + 1] - start;
+            tasks.add(() -> {
+                try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    return parseCborFrames(Channels.newInputStream(fileChannel.position(start)), length);
+                }
+            });
+        }
+        return runAll(tasks);
+    }
+
+    private static long runAll(final List<Callable<Long>> tasks) throws InterruptedException, ExecutionException {
+
+        long rows = 0;
+        try (ExecutorService executorService = Executors.newFixedThreadPool(tasks.size())) {
+            for (Future<Long> future : executorService.invokeAll(tasks)) {
+                rows += future.get();
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,101 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sizes each fetch of an open ResultSet so that it holds about the same number of bytes no matter how wide the
+ * rows are. A fixed fetch size of 1,000 is fine for narrow rows but can pull hundreds of megabytes into the heap at
+ * once when the rows are wide.
+ * <p>
+ * Call observe for every row. Every SAMPLE_INTERVAL rows it adds up the size of the row's values, and once a fetch
+ * worth of rows has been seen it works out how many rows of the average size fit in the byte budget and asks the
+ * ResultSet to fetch that many next time. The PostgreSQL driver only honors this when the rows are being read
+ * through a cursor, which needs auto-commit to be off.
+ * <p>
+ * db-interaction and web-stream each have a copy of this class; see ReaderSettings.
+ */
+/* default */ final class AdaptiveFetchSize {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveFetchSize.class);
+
+    private static final int SAMPLE_INTERVAL = 16;
+    private static final int MIN_FETCH_SIZE = 10;
+    private static final int MAX_FETCH_SIZE = 100_000;
+
+    private final long byteBudget;
+
+    private int fetchSize;
+    private int columnCount = -1;
+    private long rowCount = 0;
+    private long rowsSinceResize = 0;
+    private long sampledRows = 0;
+    private long sampledBytes = 0;
+
+    /**
+     * Constructs a new AdaptiveFetchSize.
+     *
+     * @param byteBudget The number of bytes to aim to fetch in each round trip.
+     * @param initialFetchSize The fetch size to use until the rows have been measured.
+     * @throws IllegalArgumentException If byteBudget is less than 1.
+     */
+    /* default */ AdaptiveFetchSize(final long byteBudget, final int initialFetchSize) {
+
+        if (byteBudget < 1) {
+            throw new IllegalArgumentException("The byte budget must be at least 1.");
+        }
+
+        this.byteBudget = byteBudget;
+        this.fetchSize = Math.max(initialFetchSize, MIN_FETCH_SIZE);
+    }
+
+    /**
+     * Takes note of the current row and, when it is time, changes the fetch size of the ResultSet.
+     *
+     * @param rs The ResultSet, positioned on the current row.
+     * @throws SQLException Any error will be propagated.
+     */
+    /* default */ void observe(final ResultSet rs) throws SQLException {
+
+        if (this.rowCount % SAMPLE_INTERVAL == 0) {
+            this.sample(rs);
+        }
+        this.rowCount++;
+        this.rowsSinceResize++;
+
+        if (this.rowsSinceResize >= this.fetchSize) {
+            this.rowsSinceResize = 0;
+            final long averageRowBytes = Math.max(this.sampledBytes / this.sampledRows, 1);
+            final int newFetchSize = (int) Math.min(Math.max(this.byteBudget / averageRowBytes, MIN_FETCH_SIZE), MAX_FETCH_SIZE);
+            if (newFetchSize != this.fetchSize) {
+                logger.debug("Rows average {} bytes, changing the fetch size from {} to {}.", averageRowBytes,
+                        this.fetchSize, newFetchSize);
+                this.fetchSize = newFetchSize;
+                rs.setFetchSize(newFetchSize);
+            }
+        }
+    }
+
+    private void sample(final ResultSet rs) throws SQLException {
+
+        if (this.columnCount < 0) {
+            this.columnCount = rs.getMetaData().getColumnCount();
+        }
+
+        // The driver hands back the bytes it received for each value, which is close enough to what it holds.
+        long rowBytes = 0;
+        for (int i = 1; i <= this.columnCount; i++) {
+            final byte[] value = rs.getBytes(i);
+            if (Objects.nonNull(value)) {
+                rowBytes += value.length;
+            }
+        }
+
+        this.sampledRows++;
+        this.sampledBytes += rowBytes;
+    }
+}
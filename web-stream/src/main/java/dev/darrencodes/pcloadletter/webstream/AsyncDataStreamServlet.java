@@ -0,0 +1,105 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Servlet that streams all records in the database without blocking the request thread. See AsyncExport for how
+ * the records are read and written.
+ * <p>
+ * It takes the format ("json" or "csv"), chunkSize, fromId, toId, columns, and textLength parameters, which work the
+ * same as they do for DataStreamEndpoint.
+ */
+/* default */ final class AsyncDataStreamServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient JdbcTemplate jdbcTemplate;
+    private final transient ExecutorService executorService;
+
+    /**
+     * Constructs a new AsyncDataStreamServlet.
+     *
+     * @param dataSource The DataSource to read from.
+     * @param readerSettings The settings to read with.
+     * @param readerThreads The number of threads to read chunks on. This caps the number of connections all the
+     *                      exports can hold at once.
+     * @param virtualThreads If true, each chunk is read on a new virtual thread and readerThreads is ignored. The
+     *                       connection pool then caps the number of chunks read at once.
+     */
+    /* default */ AsyncDataStreamServlet(final DataSource dataSource, final ReaderSettings readerSettings,
+                                         final int readerThreads, final boolean virtualThreads) {
+
+        this.jdbcTemplate = readerSettings.jdbcTemplate(dataSource);
+        this.executorService = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("async-export-", 1).factory())
+                : Executors.newFixedThreadPool(readerThreads, new CustomizableThreadFactory("async-export-"));
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+
+        final boolean csv = Objects.equals(request.getParameter("format"), "csv");
+        final KeysetPagingReader keysetPagingReader;
+        try {
+            final ExportOptions exportOptions = exportOptions(request);
+            exportOptions.validate();
+            keysetPagingReader = new KeysetPagingReader(this.jdbcTemplate, exportOptions.getChunkSize(),
+                    exportOptions.getSelection());
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        response.setContentType(csv ? "text/csv" : "application/json");
+
+        final AsyncContext asyncContext = request.startAsync();
+        // Exports of the whole table can take as long as they take.
+        asyncContext.setTimeout(0);
+        response.getOutputStream().setWriteListener(new AsyncExport(asyncContext, keysetPagingReader, this.executorService, csv));
+    }
+
+    // Copies the parameters this servlet takes into ExportOptions so they are checked the same way DataStreamEndpoint
+    // checks them. A number that cannot be parsed throws a NumberFormatException, which is an
+    // IllegalArgumentException.
+    private static ExportOptions exportOptions(final HttpServletRequest request) {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        final String chunkSize = request.getParameter("chunkSize");
+        if (Objects.nonNull(chunkSize)) {
+            exportOptions.setChunkSize(Integer.parseInt(chunkSize));
+        }
+        final String fromId = request.getParameter("fromId");
+        if (Objects.nonNull(fromId)) {
+            exportOptions.setFromId(Long.parseLong(fromId));
+        }
+        final String toId = request.getParameter("toId");
+        if (Objects.nonNull(toId)) {
+            exportOptions.setToId(Long.parseLong(toId));
+        }
+        final String columns = request.getParameter("columns");
+        if (Objects.nonNull(columns)) {
+            exportOptions.setColumns(columns);
+        }
+        final String textLength = request.getParameter("textLength");
+        if (Objects.nonNull(textLength)) {
+            exportOptions.setTextLength(Integer.parseInt(textLength));
+        }
+        return exportOptions;
+    }
+
+    @Override
+    public void destroy() {
+        this.executorService.shutdownNow();
+    }
+}
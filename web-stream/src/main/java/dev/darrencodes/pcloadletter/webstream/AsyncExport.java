@@ -0,0 +1,160 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams the source table to an asynchronous response using the Servlet non-blocking I/O API. Chunks of rows
+ * are read by keyset paging on an executor thread and written into an in-memory buffer, and the response is fed
+ * from that buffer only as fast as the client can take it.
+ * <p>
+ * No more than BUFFERED_CHUNKS chunks are held at a time. When the buffer is full, no more chunks are read until
+ * the client catches up, so a slow client holds neither a thread nor a pooled connection while it is waiting;
+ * both are only in use while a chunk is being read.
+ */
+/* default */ final class AsyncExport implements WriteListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncExport.class);
+
+    /**
+     * The maximum number of chunks that can be read but not yet written to the response.
+     */
+    private static final int BUFFERED_CHUNKS = 4;
+
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream outputStream;
+    private final KeysetPagingReader keysetPagingReader;
+    private final Executor executor;
+    private final ByteArrayOutputStream chunkBuffer = new ByteArrayOutputStream();
+    private final DirectRowWriter directRowWriter;
+
+    // Guarded by this.
+    private final Deque<byte[]> chunks = new ArrayDeque<>(BUFFERED_CHUNKS);
+    private boolean reading = false;
+    private boolean readingDone = false;
+    private boolean finished = false;
+
+    // Only one chunk is read at a time, so this is only touched by whichever thread is reading.
+    private long lastId = Long.MIN_VALUE;
+
+    /**
+     * Constructs a new AsyncExport. Nothing is read until the container calls onWritePossible.
+     *
+     * @param asyncContext The AsyncContext of the request being answered.
+     * @param keysetPagingReader The reader to read each chunk with.
+     * @param executor The Executor to read chunks on.
+     * @param csv True to write CSV, false to write JSON.
+     * @throws IOException Any error will be propagated.
+     */
+    /* default */ AsyncExport(final AsyncContext asyncContext, final KeysetPagingReader keysetPagingReader,
+                              final Executor executor, final boolean csv) throws IOException {
+
+        this.asyncContext = asyncContext;
+        this.outputStream = asyncContext.getResponse().getOutputStream();
+        this.keysetPagingReader = keysetPagingReader;
+        this.executor = executor;
+        this.directRowWriter = csv ? new CsvDirectRowWriter(this.chunkBuffer) : new JsonDirectRowWriter(this.chunkBuffer);
+    }
+
+    @Override
+    public synchronized void onWritePossible() throws IOException {
+
+        while (!this.finished && this.outputStream.isReady()) {
+            final byte[] chunk = this.chunks.poll();
+            if (Objects.isNull(chunk)) {
+                if (this.readingDone) {
+                    this.finished = true;
+                    logger.info(String.format("Streamed %,d records in total.", this.directRowWriter.getRowCount()));
+                    this.asyncContext.complete();
+                } else {
+                    // The reader will call back in here once the next chunk is ready.
+                    this.readMore();
+                }
+                return;
+            }
+
+            this.outputStream.write(chunk);
+            this.readMore();
+        }
+    }
+
+    @Override
+    public void onError(final Throwable t) {
+        this.fail(t);
+    }
+
+    // Starts reading the next chunk unless one is already being read or the buffer is full. Must be called while
+    // holding the lock on this.
+    private void readMore() {
+
+        if (!this.reading && !this.readingDone && !this.finished && this.chunks.size() < BUFFERED_CHUNKS) {
+            this.reading = true;
+            this.executor.execute(this::readChunk);
+        }
+    }
+
+    private void readChunk() {
+
+        final byte[] chunk;
+        final boolean last;
+        try {
+            final int rowCountBefore = this.directRowWriter.getRowCount();
+            this.lastId = this.keysetPagingReader.readChunk(this.lastId, this.directRowWriter);
+
+            // A chunk that comes back short means there is nothing left to read.
+            last = this.directRowWriter.getRowCount() - rowCountBefore < this.keysetPagingReader.getChunkSize();
+            if (last) {
+                this.directRowWriter.close();
+            } else {
+                this.directRowWriter.flush();
+            }
+
+            chunk = this.chunkBuffer.toByteArray();
+            this.chunkBuffer.reset();
+        } catch (IOException | RuntimeException e) {
+            this.fail(e);
+            return;
+        }
+
+        synchronized (this) {
+            this.chunks.add(chunk);
+            this.reading = false;
+            this.readingDone = last;
+        }
+
+        try {
+            this.onWritePossible();
+        } catch (IOException e) {
+            this.fail(e);
+        }
+    }
+
+    private void fail(final Throwable t) {
+
+        synchronized (this) {
+            if (this.finished) {
+                return;
+            }
+            this.finished = true;
+        }
+
+        logger.error("Unable to stream records", t);
+        final HttpServletResponse response = (HttpServletResponse) this.asyncContext.getResponse();
+        if (!response.isCommitted()) {
+            response.reset();
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        this.asyncContext.complete();
+    }
+}
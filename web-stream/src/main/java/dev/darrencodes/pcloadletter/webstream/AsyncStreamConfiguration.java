@@ -0,0 +1,38 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import javax.servlet.http.HttpServlet;
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Registers the non-blocking export at /async alongside the blocking one.
+ */
+@Configuration
+public class AsyncStreamConfiguration {
+
+    /**
+     * Registers AsyncDataStreamServlet with async support turned on.
+     *
+     * @param dataSource The DataSource to read from.
+     * @param readerSettings The settings to read with.
+     * @param readerThreads The number of threads to read chunks on.
+     * @param virtualThreads If true, chunks are read on virtual threads instead.
+     * @return The servlet's registration.
+     */
+    @Bean
+    public ServletRegistrationBean<HttpServlet> asyncDataStreamServlet(final DataSource dataSource,
+                                                                       final ReaderSettings readerSettings,
+                                                                       @Value("${pcloadletter.async.reader-threads:10}") final int readerThreads,
+                                                                       @Value("${pcloadletter.virtual-threads.enabled:false}") final boolean virtualThreads) {
+
+        final ServletRegistrationBean<HttpServlet> registration =
+                new ServletRegistrationBean<>(new AsyncDataStreamServlet(dataSource, readerSettings, readerThreads,
+                        virtualThreads), "/async");
+        registration.setAsyncSupported(true);
+        return registration;
+    }
+}
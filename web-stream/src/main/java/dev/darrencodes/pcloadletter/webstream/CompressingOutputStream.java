@@ -0,0 +1,302 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import io.airlift.compress.zstd.ZstdOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * OutputStream that compresses a response body with the codec the client asked for in its Accept-Encoding header.
+ * The writers in this application flush after every record, which would ruin the compression, so flushes from
+ * upstream are ignored. Instead, the compressor is flushed each time a set number of uncompressed bytes have been
+ * written so the client still sees the response arrive a piece at a time.
+ * <p>
+ * When the stream is closed, it logs how many bytes were written, how many went over the wire, and how much CPU
+ * time the request thread used so the codecs can be compared against each other and against no compression. The
+ * JVM does not measure the CPU time of virtual threads, so on a virtual thread the CPU time is left out of the log
+ * rather than reported as nothing.
+ */
+/* default */ final class CompressingOutputStream extends OutputStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompressingOutputStream.class);
+
+    private static final int GZIP_BUFFER_SIZE = 8_192;
+
+    private final String codec;
+    private final CountingOutputStream wireStream;
+    private final OutputStream compressingStream;
+    private final int flushInterval;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    // The request thread's CPU time when the stream was opened, or -1 if it cannot be measured.
+    private final long startCpuTime;
+
+    private long uncompressedBytes = 0;
+    private long bytesSinceFlush = 0;
+    private boolean closed = false;
+
+    /**
+     * Counts the bytes written through it.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count = 0;
+
+        private CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.out.write(b);
+            this.count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.out.write(b, off, len);
+            this.count += len;
+        }
+    }
+
+    /**
+     * Writes zstd as a series of frames. The zstd stream has no way to flush part of a frame, so a flush finishes
+     * the current frame and the next write starts a new one. Decoders treat a series of frames as one stream.
+     */
+    private static final class ZstdFramesOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private final OutputStream nonClosingOut;
+
+        private ZstdOutputStream frame;
+
+        private ZstdFramesOutputStream(final OutputStream out) {
+
+            this.out = out;
+            this.nonClosingOut = new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    this.out.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    // Finishing a frame must not close the response.
+                }
+            };
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.currentFrame().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.currentFrame().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.finishFrame();
+            this.out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            try {
+                this.finishFrame();
+            } finally {
+                this.out.close();
+            }
+        }
+
+        private ZstdOutputStream currentFrame() throws IOException {
+
+            if (Objects.isNull(this.frame)) {
+                this.frame = new ZstdOutputStream(this.nonClosingOut);
+            }
+            return this.frame;
+        }
+
+        private void finishFrame() throws IOException {
+
+            if (Objects.nonNull(this.frame)) {
+                this.frame.close();
+                this.frame = null;
+            }
+        }
+    }
+
+    /**
+     * Picks the best codec the client accepts, sets the response headers for it, and returns a stream that
+     * compresses with it. If the client does not accept a codec this application supports, the response's own
+     * OutputStream is returned.
+     *
+     * @param request The request to read the Accept-Encoding header from.
+     * @param response The response to compress.
+     * @param flushInterval The number of uncompressed bytes to write between flushes of the compressor.
+     * @return The stream to write the response body to.
+     * @throws IOException Any error will be propagated.
+     */
+    /* default */ static OutputStream negotiate(final HttpServletRequest request, final HttpServletResponse response,
+                                                final int flushInterval) throws IOException {
+        return negotiate(request, response, response.getOutputStream(), flushInterval);
+    }
+
+    /**
+     * Picks the best codec the client accepts, sets the response headers for it, and returns a stream that
+     * compresses with it into outputStream. If the client does not accept a codec this application supports,
+     * outputStream is returned.
+     *
+     * @param request The request to read the Accept-Encoding header from.
+     * @param response The response to compress.
+     * @param outputStream The stream the response body is written to, usually the response's own OutputStream.
+     * @param flushInterval The number of uncompressed bytes to write between flushes of the compressor.
+     * @return The stream to write the response body to.
+     * @throws IOException Any error will be propagated.
+     * @throws IllegalArgumentException If flushInterval is less than 1.
+     */
+    /* default */ static OutputStream negotiate(final HttpServletRequest request, final HttpServletResponse response,
+                                                final OutputStream outputStream, final int flushInterval) throws IOException {
+
+        if (flushInterval < 1) {
+            throw new IllegalArgumentException("The flush interval must be at least 1.");
+        }
+
+        final String codec = chooseCodec(request.getHeader("Accept-Encoding"));
+
+        response.addHeader("Vary", "Accept-Encoding");
+        if (Objects.isNull(codec)) {
+            return outputStream;
+        }
+
+        response.setHeader("Content-Encoding", codec);
+        return new CompressingOutputStream(codec, outputStream, flushInterval);
+    }
+
+    private CompressingOutputStream(final String codec, final OutputStream outputStream, final int flushInterval) throws IOException {
+
+        this.codec = codec;
+        this.wireStream = new CountingOutputStream(outputStream);
+        this.compressingStream = Objects.equals(codec, "zstd")
+                ? new ZstdFramesOutputStream(this.wireStream)
+                : new GZIPOutputStream(this.wireStream, GZIP_BUFFER_SIZE, true);
+        this.flushInterval = flushInterval;
+        this.startCpuTime = currentThreadCpuTime(this.threadMXBean);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+
+        this.compressingStream.write(b);
+        this.written(1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        this.compressingStream.write(b, off, len);
+        this.written(len);
+    }
+
+    @Override
+    public void flush() {
+        // Intentionally empty. See the class comment.
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        this.compressingStream.close();
+
+        final long endCpuTime = currentThreadCpuTime(this.threadMXBean);
+        if (this.startCpuTime < 0 || endCpuTime < 0) {
+            logger.info(String.format("Compressed %,d bytes to %,d bytes with %s. CPU time is not measured on this thread.",
+                    this.uncompressedBytes, this.wireStream.count, this.codec));
+            return;
+        }
+
+        final long cpuMillis = (endCpuTime - this.startCpuTime) / 1_000_000;
+        logger.info(String.format("Compressed %,d bytes to %,d bytes with %s using %,d milliseconds of request thread CPU.",
+                this.uncompressedBytes, this.wireStream.count, this.codec, cpuMillis));
+    }
+
+    // Returns the current thread's CPU time in nanoseconds, or -1 if it cannot be measured. The JVM returns -1 for
+    // virtual threads and when CPU time measurement is turned off, and throws if it is not supported at all.
+    private static long currentThreadCpuTime(final ThreadMXBean threadMXBean) {
+
+        if (Thread.currentThread().isVirtual() || !threadMXBean.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+        return threadMXBean.getCurrentThreadCpuTime();
+    }
+
+    private void written(final int len) throws IOException {
+
+        this.uncompressedBytes += len;
+        this.bytesSinceFlush += len;
+        if (this.bytesSinceFlush >= this.flushInterval) {
+            this.compressingStream.flush();
+            this.bytesSinceFlush = 0;
+        }
+    }
+
+    // Returns the supported codec the client prefers, or null if it does not accept any of them. The client's
+    // q-values decide; on a tie, zstd wins because it compresses better for less CPU.
+    private static String chooseCodec(final String acceptEncoding) {
+
+        if (Objects.isNull(acceptEncoding)) {
+            return null;
+        }
+
+        String best = null;
+        double bestQuality = 0;
+        for (String part : acceptEncoding.split(",")) {
+            final String[] tokens = part.split(";");
+            final String name = tokens[0].trim().toLowerCase(Locale.ROOT);
+            if (!Objects.equals(name, "zstd") && !Objects.equals(name, "gzip")) {
+                continue;
+            }
+
+            final double quality = quality(tokens);
+            if (quality > bestQuality || (quality == bestQuality && quality > 0 && Objects.equals(name, "zstd"))) {
+                best = name;
+                bestQuality = quality;
+            }
+        }
+
+        return best;
+    }
+
+    private static double quality(final String[] tokens) {
+
+        for (int i = 1; i < tokens.length; i++) {
+            final String parameter = tokens[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+
+        return 1;
+    }
+}
@@ -0,0 +1,140 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * DirectRowWriter that writes rows as CSV with a header. Rows are encoded into a reusable buffer that is written
+ * to the OutputStream each time it fills. Values are only quoted when they need to be, which matches the Jackson
+ * CSV output.
+ */
+/* default */ final class CsvDirectRowWriter extends DirectRowWriter {
+
+    private static final byte[] HEADER = {'i', 'd', ',', 't', 'e', 'x', 't', '\n'};
+    private static final int BUFFER_SIZE = 8_192;
+
+    // The longest row is a 20 character ID, a comma, text where every character is a quote that has been doubled,
+    // the surrounding quotes, and a newline.
+    private static final int MAX_ROW_SIZE = 20 + 1 + IdWrapper.MAX_STRING_SIZE * 4 * 2 + 2 + 1;
+
+    private final OutputStream outputStream;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private int position = 0;
+
+    /**
+     * Constructs a new CsvDirectRowWriter and writes the header.
+     *
+     * @param outputStream The OutputStream to write the CSV to. It will be closed when this writer is.
+     */
+    /* default */ CsvDirectRowWriter(final OutputStream outputStream) {
+
+        this.outputStream = outputStream;
+        System.arraycopy(HEADER, 0, this.buffer, 0, HEADER.length);
+        this.position = HEADER.length;
+    }
+
+    @Override
+    protected void writeRow(final long id, final byte[] text, final int textLength, final boolean truncated) throws IOException {
+
+        if (this.position + MAX_ROW_SIZE > this.buffer.length) {
+            this.flushBuffer();
+        }
+
+        this.writeId(id);
+        this.buffer[this.position++] = ',';
+
+        // A null is written as an empty, unquoted value, which is what Jackson and PostgreSQL do.
+        if (Objects.isNull(text)) {
+            this.buffer[this.position++] = '\n';
+            return;
+        }
+
+        final boolean quoted = needsQuotes(text, textLength, truncated);
+        if (quoted) {
+            this.buffer[this.position++] = '"';
+        }
+        for (int i = 0; i < textLength; i++) {
+            final byte b = text[i];
+            if (b == '"') {
+                this.buffer[this.position++] = '"';
+            }
+            this.buffer[this.position++] = b;
+        }
+        if (truncated) {
+            System.arraycopy(ELLIPSIS, 0, this.buffer, this.position, ELLIPSIS.length);
+            this.position += ELLIPSIS.length;
+        }
+        if (quoted) {
+            this.buffer[this.position++] = '"';
+        }
+
+        this.buffer[this.position++] = '\n';
+    }
+
+    @Override
+    public void flush() throws IOException {
+
+        this.flushBuffer();
+        this.outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        try {
+            this.flushBuffer();
+        } finally {
+            this.outputStream.close();
+        }
+    }
+
+    // Writes the digits of the ID without creating a String for it. IDs are integers in the database, so negating
+    // one cannot overflow.
+    private void writeId(final long id) {
+
+        long remaining = id;
+        if (remaining < 0) {
+            this.buffer[this.position++] = '-';
+            remaining = -remaining;
+        }
+
+        final int start = this.position;
+        do {
+            this.buffer[this.position++] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+
+        // The digits were written least significant first, so reverse them.
+        for (int i = start, j = this.position - 1; i < j; i++, j--) {
+            final byte b = this.buffer[i];
+            this.buffer[i] = this.buffer[j];
+            this.buffer[j] = b;
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+
+        this.outputStream.write(this.buffer, 0, this.position);
+        this.position = 0;
+    }
+
+    // Empty values and values with a separator, quote, or line break in them need to be quoted. None of those
+    // characters can appear inside a multi-byte UTF-8 character, so checking bytes is safe.
+    private static boolean needsQuotes(final byte[] text, final int textLength, final boolean truncated) {
+
+        if (textLength == 0 && !truncated) {
+            return true;
+        }
+
+        for (int i = 0; i < textLength; i++) {
+            final byte b = text[i];
+            if (b == ',' || b == '"' || b == '\r' || b == '\n') {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
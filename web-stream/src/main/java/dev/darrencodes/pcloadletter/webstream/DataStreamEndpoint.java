@@ -2,20 +2,30 @@ package dev.darrencodes.pcloadletter.webstream;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.sql.DataSource;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.dataformat.csv.CsvGenerator;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
 import com.fasterxml.jackson.dataformat.csv.CsvSchema;
+import org.postgresql.PGConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 /**
@@ -26,63 +36,391 @@ public class DataStreamEndpoint {
 
     private static final Logger logger = LoggerFactory.getLogger(DataStreamEndpoint.class);
 
+    /**
+     * The name of the trailer that holds the cursor a client can pass back as the after parameter to resume
+     * a chunked export.
+     */
+    private static final String RESUME_CURSOR_TRAILER = "X-Resume-After";
+
+    /**
+     * The name of the header that holds the watermark a client passes back as the since parameter to get only the
+     * records added after this export.
+     */
+    private static final String WATERMARK_HEADER = "X-Watermark";
+
+    // The largest committed ID. It is only a safe watermark when no load is running; see incrementalQuery.
+    private static final String WATERMARK_SQL = "select coalesce(max(id), ?) from pc_load_letter.source where id <= ?";
+
+    private static final String SINGLE_SQL = "select id, %s as text_val from pc_load_letter.source where id > ? and id <= ?";
+
+    /**
+     * Has PostgreSQL produce the same CSV the IdWrapper path does, with the text truncated by the SourceSelection.
+     * COPY cannot take parameters, so the ID range is formatted into the statement; it is only ever two longs.
+     */
+    private static final String CSV_COPY_SQL = "copy (select id, %s as text from pc_load_letter.source where id > %d and id <= %d)"
+            + " to stdout with (format csv, header)";
+
     private final DataSource dataSource;
+    private final ReaderSettings readerSettings;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ExportCache exportCache;
+    private final ExportMetrics exportMetrics;
+    private final int compressionFlushInterval;
+    private final Semaphore partitionPermits;
 
     /**
      * Constructs a new DataStreamEndpoint.
      *
      * @param dataSource The DataSource to use to run queries.
+     * @param readerSettings The settings to read with.
+     * @param exportCache The cache to serve repeated exports from.
+     * @param exportMetrics Where to record how each export went.
+     * @param compressionFlushInterval The number of uncompressed bytes to write between flushes of a compressed
+     *                                 response.
+     * @param partitionConnections The number of partitions all exports may run at once, or 0 for one less than the
+     *                             pool's maximum size when it starts.
+     * @throws IllegalArgumentException If compressionFlushInterval is less than 1 or partitionConnections is negative.
+     * @throws SQLException If the data source cannot be unwrapped.
      */
-    public DataStreamEndpoint(final DataSource dataSource) {
+    public DataStreamEndpoint(final DataSource dataSource, final ReaderSettings readerSettings, final ExportCache exportCache,
+                              final ExportMetrics exportMetrics,
+                              @Value("${pcloadletter.compression.flush-interval:65536}") final int compressionFlushInterval,
+                              @Value("${pcloadletter.reader.partition-connections:0}") final int partitionConnections) throws SQLException {
+
+        // Checked here as well as when compressing so a bad setting stops the application from starting.
+        if (compressionFlushInterval < 1) {
+            throw new IllegalArgumentException("The compression flush interval must be at least 1.");
+        }
+
         this.dataSource = dataSource;
+        this.readerSettings = readerSettings;
+        this.jdbcTemplate = readerSettings.jdbcTemplate(dataSource);
+        this.transactionTemplate = readerSettings.transactionTemplate(dataSource);
+        this.exportCache = exportCache;
+        this.exportMetrics = exportMetrics;
+        this.compressionFlushInterval = compressionFlushInterval;
+        this.partitionPermits = PartitionedSourceReader.newPermits(dataSource, partitionConnections);
     }
 
     /**
-     * GET endpoint. It will stream all records in the database.
+     * GET endpoint. It will stream all records in the database. If the client accepts gzip or zstd encoding, the
+     * response will be compressed. If the export cache is enabled and the same export has been made since the data
+     * last changed, it is served from the cache.
      *
-     * @param format An optional format to return the values as. Valid values are "json" or "csv". If not
-     *               set or any other value is set, will return JSON.
+     * @param exportOptions The request parameters that control how the records are read and written. See
+     *                      ExportOptions for what each one does.
+     * @param request The HttpServletRequest, used to negotiate compression.
      * @param response The HttpServletResponse to write the data to.
      * @throws IOException Any error will be propagated.
      */
     @GetMapping
-    public void streamIds(@RequestParam(name = "format", defaultValue = "json") final String format, final HttpServletResponse response) throws IOException {
+    public void streamIds(final ExportOptions exportOptions, final HttpServletRequest request,
+                          final HttpServletResponse response) throws IOException {
+
+        final SourceSelection sourceSelection;
+        try {
+            exportOptions.validate();
+            sourceSelection = exportOptions.getSelection();
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        final String cacheKey = this.exportCache.key(exportOptions);
+        if (Objects.nonNull(exportOptions.getContentType())) {
+            response.setContentType(exportOptions.getContentType());
+        }
+
+        // The response is measured beneath the compression so the bytes counted are the bytes sent.
+        final ExportMetrics.Recording recording = this.exportMetrics.start(exportOptions.getFormatName());
+        String outcome = "error";
+        try {
+            try (OutputStream outputStream = CompressingOutputStream.negotiate(request, response,
+                    recording.instrument(response.getOutputStream()), this.compressionFlushInterval)) {
+
+                if (Objects.isNull(cacheKey)) {
+                    this.stream(exportOptions, sourceSelection, outputStream, response, recording);
+                    outcome = "success";
+                    return;
+                }
+
+                if (this.exportCache.serve(cacheKey, outputStream, recording)) {
+                    outcome = "cached";
+                    return;
+                }
+
+                // The uncompressed output is copied to the cache as it is written, and only kept if the export
+                // finishes.
+                try (ExportCache.Entry entry = this.exportCache.begin(cacheKey)) {
+                    final ExportCache.TeeOutputStream teeOutputStream =
+                            new ExportCache.TeeOutputStream(outputStream, entry.getOutputStream());
+                    this.stream(exportOptions, sourceSelection, teeOutputStream, response, recording);
+                    if (teeOutputStream.isCopyComplete()) {
+                        entry.commit(recording.getRows());
+                    }
+                }
+                outcome = "success";
+            }
+        } finally {
+            recording.finish(outcome);
+        }
+    }
+
+    /**
+     * Picks how to read and write the records based on the request's options and streams them.
+     *
+     * @param exportOptions The options that control how the records are read and written.
+     * @param sourceSelection The records and columns to read, from exportOptions.
+     * @param outputStream The OutputStream to write the records to.
+     * @param response The HttpServletResponse the records are being written to.
+     * @param recording Where to record how the export went.
+     * @throws IOException Any error will be propagated.
+     */
+    private void stream(final ExportOptions exportOptions, final SourceSelection sourceSelection,
+                        final OutputStream outputStream, final HttpServletResponse response,
+                        final ExportMetrics.Recording recording) throws IOException {
 
-        if (Objects.equals(format, "csv")) {
-            this.doCsvStream(response.getOutputStream());
+        // An incremental export has to stop at the watermark it sends back, which only keyset paging does.
+        if (exportOptions.isPassthrough() && exportOptions.isCsv() && !exportOptions.isIncremental()) {
+            this.doCsvPassthroughStream(outputStream, sourceSelection, recording);
+            return;
+        }
+
+        // Partitions hand constructed objects between threads, so only unpartitioned exports can write records
+        // straight from the ResultSet. Arrow, NDJSON, and CBOR are only written that way, so they are never
+        // partitioned.
+        if (exportOptions.getPartitions() > 1 && !exportOptions.isDirectOnly() && !exportOptions.isIncremental()) {
+            this.doObjectStream(exportOptions, outputStream, this.partitionedQuery(exportOptions.getStartAfter(),
+                    exportOptions.getChunkSize(), exportOptions.getPartitions(), exportOptions.isOrdered(), sourceSelection),
+                    recording);
+            return;
+        }
+
+        final SourceQuery<RowCallbackHandler> query;
+        if (exportOptions.isIncremental()) {
+            query = this.incrementalQuery(exportOptions.getSince(), exportOptions.getChunkSize(), sourceSelection, response);
+        } else if (exportOptions.isChunked()) {
+            query = this.chunkedQuery(exportOptions.getStartAfter(), exportOptions.getChunkSize(), sourceSelection, response);
         } else {
-            this.doJsonStream(response.getOutputStream());
+            query = rowCallbackHandler -> this.singleQuery(sourceSelection, rowCallbackHandler);
+        }
+
+        if (exportOptions.isArrow()) {
+            this.doDirectStream(new ArrowDirectRowWriter(outputStream, exportOptions.getBatchSize()), query, recording);
+        } else if (exportOptions.isNdjson()) {
+            this.doDirectStream(new JsonDirectRowWriter(outputStream, true), query, recording);
+        } else if (exportOptions.isCbor()) {
+            this.doDirectStream(new FramedCborDirectRowWriter(outputStream), query, recording);
+        } else if (exportOptions.isDirect()) {
+            this.doDirectStream(exportOptions.isCsv() ? new CsvDirectRowWriter(outputStream) : new JsonDirectRowWriter(outputStream),
+                    query, recording);
+        } else {
+            this.doObjectStream(exportOptions, outputStream, query, recording);
+        }
+    }
+
+    /**
+     * Streams all records as JSON or CSV by constructing an IdWrapper for each and having Jackson serialize it.
+     *
+     * @param exportOptions The options that control how the records are written.
+     * @param outputStream The OutputStream to write the records to.
+     * @param query The query to read the records with.
+     * @param recording Where to record how the export went.
+     * @throws IOException Any error will be propagated.
+     */
+    private void doObjectStream(final ExportOptions exportOptions, final OutputStream outputStream,
+                                final SourceQuery<? super SequenceWritingCallbackHandler<IdWrapper>> query,
+                                final ExportMetrics.Recording recording) throws IOException {
+
+        if (exportOptions.isCsv()) {
+            this.doCsvStream(outputStream, query, recording);
+        } else {
+            this.doJsonStream(outputStream, query, recording);
+        }
+    }
+
+    /**
+     * Reads all records with a single query. This holds one connection for the entire export. The query runs in a
+     * read-only transaction so the driver reads through a cursor rather than loading every row into memory first.
+     *
+     * @param sourceSelection The records and columns to read.
+     * @param rowCallbackHandler The handler to pass each row to.
+     */
+    private void singleQuery(final SourceSelection sourceSelection, final RowCallbackHandler rowCallbackHandler) {
+
+        final RowCallbackHandler adaptiveRowCallbackHandler = this.readerSettings.adaptive(rowCallbackHandler);
+        this.transactionTemplate.executeWithoutResult(status -> this.jdbcTemplate
+                .query(String.format(SINGLE_SQL, sourceSelection.getTextColumn()), adaptiveRowCallbackHandler,
+                        sourceSelection.getAfter(), sourceSelection.getUpTo()));
+    }
+
+    /**
+     * Builds a query that reads records in chunks by ID, borrowing a connection from the pool for each chunk.
+     * When the export finishes, the ID of the last record is sent to the client in a trailer so it can continue
+     * from there later.
+     *
+     * @param after Only records with an ID greater than this will be read.
+     * @param chunkSize The number of records to read in each chunk.
+     * @param sourceSelection The records and columns to read.
+     * @param response The HttpServletResponse to send the resume cursor on.
+     * @return A query that reads records in chunks.
+     */
+    private SourceQuery<RowCallbackHandler> chunkedQuery(final long after, final int chunkSize,
+                                                         final SourceSelection sourceSelection, final HttpServletResponse response) {
+
+        final KeysetPagingReader keysetPagingReader = new KeysetPagingReader(this.jdbcTemplate, chunkSize, sourceSelection);
+        final AtomicLong resumeCursor = new AtomicLong(after);
+
+        // Trailers have to be registered before any of the body is written. They are only sent on chunked
+        // HTTP/1.1 (or HTTP/2) responses, so this is a best effort; a client can always resume from the last
+        // ID it received.
+        try {
+            response.setHeader("Trailer", RESUME_CURSOR_TRAILER);
+            response.setTrailerFields(() -> Map.of(RESUME_CURSOR_TRAILER, Long.toString(resumeCursor.get())));
+        } catch (IllegalStateException e) {
+            logger.debug("Trailers are not supported for this response: {}", e.getMessage());
         }
+
+        return rowCallbackHandler -> resumeCursor.set(keysetPagingReader.read(resumeCursor.get(), rowCallbackHandler));
+    }
+
+    /**
+     * Builds a query that reads only the records added since a previous export, in chunks by ID. The largest ID
+     * is read first and sent in the X-Watermark header, and only records up to it are read, so records added while
+     * the export runs are left for the next one rather than being sent twice.
+     * <p>
+     * This is only correct between loads. The watermark assumes every ID below it has been committed, but a
+     * parallel load commits its chunks out of order, so a watermark taken during one can be past a chunk of lower
+     * IDs that commits later; those records are never sent incrementally. Records that are updated or deleted and
+     * reloaded under the same ID are not picked up either. A full export is needed after either.
+     *
+     * @param since Only records with an ID greater than this will be read.
+     * @param chunkSize The number of records to read in each chunk.
+     * @param sourceSelection The records and columns to read. The watermark is never past its largest ID.
+     * @param response The HttpServletResponse to send the watermark on.
+     * @return A query that reads the records added since the watermark.
+     */
+    private SourceQuery<RowCallbackHandler> incrementalQuery(final long since, final int chunkSize,
+                                                             final SourceSelection sourceSelection,
+                                                             final HttpServletResponse response) {
+
+        final KeysetPagingReader keysetPagingReader = new KeysetPagingReader(this.jdbcTemplate, chunkSize, sourceSelection);
+
+        // Key point: the header has to be set before any of the body is written, so the watermark is fixed up front
+        // rather than taken from the last record read.
+        final long watermark = Math.max(since,
+                this.jdbcTemplate.queryForObject(WATERMARK_SQL, Long.class, since, sourceSelection.getUpTo()));
+        response.setHeader(WATERMARK_HEADER, Long.toString(watermark));
+
+        return rowCallbackHandler -> keysetPagingReader.read(since, watermark, rowCallbackHandler);
+    }
+
+    /**
+     * Builds a query that splits the records into ID ranges and reads them concurrently, each on its own pooled
+     * connections. The number of records held in memory is bounded by the number of partitions, not the number
+     * of records, and fewer partitions are used if other exports are already using most of them.
+     *
+     * @param after Only records with an ID greater than this will be read.
+     * @param chunkSize The number of records each partition reads in one query.
+     * @param partitions The number of ID ranges to read concurrently.
+     * @param ordered If true, records will be written in ID order.
+     * @param sourceSelection The records and columns to read.
+     * @return A query that reads records in concurrent partitions.
+     */
+    private SourceQuery<SequenceWritingCallbackHandler<IdWrapper>> partitionedQuery(final long after, final int chunkSize,
+                                                                                    final int partitions, final boolean ordered,
+                                                                                    final SourceSelection sourceSelection) {
+
+        final PartitionedSourceReader partitionedSourceReader = new PartitionedSourceReader(
+                this.jdbcTemplate, partitions, ordered, chunkSize, sourceSelection, this.partitionPermits);
+
+        return sequenceWritingCallbackHandler -> partitionedSourceReader.read(after, sequenceWritingCallbackHandler);
     }
 
     /**
      * Streams all records in a JSON array to the response.
      *
      * @param outputStream The OutputStream to write the JSON array to.
+     * @param query The query to read the records with.
+     * @param recording Where to record how the export went.
      * @throws IOException Any error will be propagated.
      */
-    private void doJsonStream(final OutputStream outputStream) throws IOException {
+    private void doJsonStream(final OutputStream outputStream,
+                              final SourceQuery<? super SequenceWritingCallbackHandler<IdWrapper>> query,
+                              final ExportMetrics.Recording recording) throws IOException {
 
         // These objects will allow us to take a ResultSet, marshall each row to an object, use Jackson to
         // convert that object to JSON, and allow Jackson to write that JSON to the HTTP response.
         final ObjectMapper objectMapper = new ObjectMapper();
         final ObjectWriter objectWriter =  objectMapper.writerFor(IdWrapper.class);
-        this.doDataStream(objectWriter, outputStream);
+        this.doDataStream(objectWriter, outputStream, query, recording);
     }
 
     /**
      * Streams all records in a CSV format to the response.
      *
      * @param outputStream The OutputStream to write the CSV to.
+     * @param query The query to read the records with.
+     * @param recording Where to record how the export went.
      * @throws IOException Any error will be propagated.
      */
-    private void doCsvStream(final OutputStream outputStream) throws IOException {
+    private void doCsvStream(final OutputStream outputStream,
+                             final SourceQuery<? super SequenceWritingCallbackHandler<IdWrapper>> query,
+                             final ExportMetrics.Recording recording) throws IOException {
 
-        final CsvMapper mapper = new CsvMapper();
+        // Only quote values that need it. This is what PostgreSQL does, so this output matches the passthrough output.
+        final CsvMapper mapper = new CsvMapper()
+                .enable(CsvGenerator.Feature.STRICT_CHECK_FOR_QUOTING)
+                .enable(CsvGenerator.Feature.ALWAYS_QUOTE_EMPTY_STRINGS);
         final CsvSchema csvSchema = mapper.schemaFor(IdWrapper.class)
                 .withHeader();
         final ObjectWriter objectWriter = mapper.writer(csvSchema);
-        this.doDataStream(objectWriter, outputStream);
+        this.doDataStream(objectWriter, outputStream, query, recording);
+    }
+
+    /**
+     * Streams all records in a CSV format to the response by having PostgreSQL's COPY command produce the CSV and
+     * passing the bytes the driver receives straight through to the response. No objects are constructed for each
+     * record and there is nothing for Jackson to encode.
+     *
+     * @param outputStream The OutputStream to write the CSV to.
+     * @param sourceSelection The records and columns to read.
+     * @param recording Where to record how the export went.
+     */
+    private void doCsvPassthroughStream(final OutputStream outputStream, final SourceSelection sourceSelection,
+                                        final ExportMetrics.Recording recording) {
+
+        final String copySql = String.format(CSV_COPY_SQL, sourceSelection.getTextColumn(), sourceSelection.getAfter(),
+                sourceSelection.getUpTo());
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(this.dataSource);
+        recording.bulk();
+        final Long rowCount = jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try {
+                return connection.unwrap(PGConnection.class).getCopyAPI().copyOut(copySql, outputStream);
+            } catch (IOException e) {
+                throw new SQLException("Unable to write CSV", e);
+            }
+        });
+
+        recording.setRows(rowCount);
+    }
+
+    /**
+     * Streams all records to the response with a DirectRowWriter, which writes each row's values straight from the
+     * ResultSet rather than constructing an IdWrapper and having Jackson serialize it.
+     *
+     * @param directRowWriter The DirectRowWriter to write the records with.
+     * @param query The query to read the records with.
+     * @param recording Where to record how the export went.
+     * @throws IOException Any error will be propagated.
+     */
+    private void doDirectStream(final DirectRowWriter directRowWriter, final SourceQuery<RowCallbackHandler> query,
+                                final ExportMetrics.Recording recording) throws IOException {
+
+        try (directRowWriter) {
+            query.run(recording.timed(directRowWriter));
+        }
     }
 
     /**
@@ -90,20 +428,21 @@ public class DataStreamEndpoint {
      *
      * @param objectWriter The ObjectWriter to write the data with.
      * @param outputStream The OutputStream for the ObjectWriter to write the data to.
+     * @param query The query to read the records with.
+     * @param recording Where to record how the export went.
      * @throws IOException Any error will be propagated.
      */
-    private void doDataStream(final ObjectWriter objectWriter, final OutputStream outputStream) throws IOException {
+    private void doDataStream(final ObjectWriter objectWriter, final OutputStream outputStream,
+                              final SourceQuery<? super SequenceWritingCallbackHandler<IdWrapper>> query,
+                              final ExportMetrics.Recording recording) throws IOException {
 
         try (SequenceWriter sequenceWriter = objectWriter.writeValuesAsArray(outputStream)) {
 
             final SequenceWritingCallbackHandler<IdWrapper> sequenceWritingCallbackHandler =
-                    new SequenceWritingCallbackHandler<>(sequenceWriter, new IdWrapperRowMapper());
-            final JdbcTemplate jdbcTemplate = new JdbcTemplate(this.dataSource);
+                    new SequenceWritingCallbackHandler<>(sequenceWriter, new IdWrapperRowMapper(), recording);
 
             // This will do the actual work of running the query and writing all the records to the HTTP response.
-            jdbcTemplate.query("select id, text_val from pc_load_letter.source", sequenceWritingCallbackHandler);
-
-            logger.info(String.format("Streamed a total of %,d records.", sequenceWritingCallbackHandler.getRowCount()));
+            query.run(sequenceWritingCallbackHandler);
         }
     }
 }
@@ -0,0 +1,107 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Objects;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * RowCallbackHandler that writes the ID and text of each row straight from the ResultSet to an output format,
+ * with the same values as an IdWrapper would hold. It reads the text as the UTF-8 bytes the driver
+ * received and truncates it by length rather than by creating a substring, so no objects are created for each
+ * row. Subclasses write the actual format.
+ * <p>
+ * Rows must have the ID in the first column and the text in the second. The text is null if it was not selected.
+ */
+/* default */ abstract class DirectRowWriter implements RowCallbackHandler, Closeable, Flushable {
+
+    /**
+     * What is added to the end of text that has been truncated.
+     */
+    /* default */ static final byte[] ELLIPSIS = {'.', '.', '.'};
+
+    private static final int ID_COLUMN = 1;
+    private static final int TEXT_COLUMN = 2;
+
+    private int rowCount = 0;
+
+    @Override
+    public void processRow(ResultSet rs) throws SQLException {
+
+        final long id = rs.getLong(ID_COLUMN);
+        final byte[] text = rs.getBytes(TEXT_COLUMN);
+        final int keepLength = Objects.isNull(text) ? -1 : truncatedLength(text);
+
+        try {
+            if (Objects.isNull(text)) {
+                this.writeRow(id, null, 0, false);
+            } else if (keepLength < 0) {
+                this.writeRow(id, text, text.length, false);
+            } else {
+                this.writeRow(id, text, keepLength, true);
+            }
+        } catch (IOException e) {
+            throw new SQLException("Unable to write row", e);
+        }
+
+        this.rowCount++;
+    }
+
+    /**
+     * Writes a single row.
+     *
+     * @param id The row's ID.
+     * @param text A buffer holding the row's text as UTF-8, or null if the text was not selected.
+     * @param textLength The number of bytes from the start of text to write.
+     * @param truncated If true, the text has been truncated and should be followed by an ELLIPSIS.
+     * @throws IOException Any error will be propagated.
+     */
+    protected abstract void writeRow(long id, byte[] text, int textLength, boolean truncated) throws IOException;
+
+    /**
+     * Writes anything that has been buffered to the underlying OutputStream. The format is not finished, so more
+     * rows can still be written.
+     *
+     * @throws IOException Any error will be propagated.
+     */
+    @Override
+    public abstract void flush() throws IOException;
+
+    /**
+     * Returns the number of rows written so far.
+     *
+     * @return The number of rows written so far.
+     */
+    /* default */ int getRowCount() {
+        return this.rowCount;
+    }
+
+    // Works out how much of the text to keep so it matches what IdWrapper does. IdWrapper counts UTF-16 chars,
+    // so characters outside the Basic Multilingual Plane (four bytes in UTF-8) count as two. Returns the number of
+    // bytes to keep ahead of the ellipsis, or -1 if the text does not need to be truncated.
+    private static int truncatedLength(final byte[] text) {
+
+        int chars = 0;
+        int keepLength = 0;
+        int i = 0;
+        while (i < text.length) {
+            final int lead = text[i] & 0xFF;
+            final int byteCount = lead < 0x80 ? 1 : lead < 0xE0 ? 2 : lead < 0xF0 ? 3 : 4;
+
+            chars += byteCount == 4 ? 2 : 1;
+            i += byteCount;
+            if (chars <= IdWrapper.MAX_STRING_SIZE - ELLIPSIS.length) {
+                keepLength = i;
+            }
+            if (chars > IdWrapper.MAX_STRING_SIZE) {
+                return keepLength;
+            }
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,354 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the output of recent whole-table exports in files so a repeat of the same export can be served without
+ * reading the table again.
+ * <p>
+ * Each export is cached under its options and the version of the data it was read from. The version is the largest
+ * ID in the table together with PostgreSQL's count of rows inserted, updated, and deleted in it, so any load or
+ * change to the table makes the old entries unreachable and they age out. The statistics behind the count are
+ * updated when each transaction ends, so a change can take up to a second to be seen.
+ * <p>
+ * The cache owns its directory. Entries only live in memory, so the files a previous run left behind can never be
+ * served; they are deleted at startup so they do not fill the disk outside of max-bytes.
+ * <p>
+ * The uncompressed output is cached, so one entry serves every Accept-Encoding. Hits are copied from the file to
+ * the response with FileChannel.transferTo, so nothing is read from the database or encoded again. The response is
+ * only available as a stream, so this still copies through a buffer; Tomcat's sendfile support would avoid that, but
+ * it opens the file after the request returns, by which time the entry may have been evicted. When the files
+ * together exceed max-bytes, the least recently used are deleted.
+ */
+@Component
+public class ExportCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportCache.class);
+
+    private static final String EXPORT_FILES = "export-*.tmp";
+
+    // The writers write a record at a time, so entries are buffered rather than making a system call per record.
+    private static final int ENTRY_BUFFER_SIZE = 65_536;
+
+    // The count comes from PostgreSQL's cumulative statistics, which are not transactional: a rolled back insert
+    // still counts, which only costs a miss. They are also only sent when a transaction ends and published up to a
+    // second later, and they are reset to 0 by pg_stat_reset() and by a crash. After a reset, a change that leaves
+    // the largest ID alone can bring the count back to a value it had before, and an older entry for that version
+    // would be served. Restart the application after resetting the statistics, or clear the cache, to rule that out.
+    private static final String VERSION_SQL = "select (select coalesce(max(id), 0) from pc_load_letter.source) || ':' || "
+            + "coalesce((select n_tup_ins + n_tup_upd + n_tup_del from pg_stat_user_tables "
+            + "where schemaname = 'pc_load_letter' and relname = 'source'), 0)";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxBytes;
+    private final JdbcTemplate jdbcTemplate;
+
+    // Guarded by this. In access order, so the first entry is the least recently used.
+    private final Map<String, Cached> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong cachedBytes = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter bytesServed;
+
+    /**
+     * Constructs a new ExportCache.
+     *
+     * @param dataSource The DataSource to read the data version from.
+     * @param readerSettings The settings to read the data version with.
+     * @param meterRegistry Where to record hits, misses, and bytes served.
+     * @param enabled False to never cache.
+     * @param directory The directory to keep the files in, or blank for a new temporary directory.
+     * @param maxBytes The most the files may take up together.
+     * @throws IOException If the directory cannot be created or the files a previous run left in it cannot be
+     *                     deleted.
+     */
+    public ExportCache(final DataSource dataSource, final ReaderSettings readerSettings, final MeterRegistry meterRegistry,
+                       @Value("${pcloadletter.cache.enabled:false}") final boolean enabled,
+                       @Value("${pcloadletter.cache.directory:}") final String directory,
+                       @Value("${pcloadletter.cache.max-bytes:1073741824}") final long maxBytes) throws IOException {
+
+        this.enabled = enabled;
+        this.directory = directory.isBlank()
+                ? Files.createTempDirectory("pcloadletter-export-cache")
+                : Files.createDirectories(Path.of(directory));
+        this.maxBytes = maxBytes;
+        this.deleteLeftovers();
+        this.jdbcTemplate = readerSettings.jdbcTemplate(dataSource);
+
+        this.hits = Counter.builder("pcloadletter.export.cache").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("pcloadletter.export.cache").tag("result", "miss").register(meterRegistry);
+        this.bytesServed = Counter.builder("pcloadletter.export.cache.served")
+                .description("Bytes served from the export cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        meterRegistry.gauge("pcloadletter.export.cache.size", this.cachedBytes);
+    }
+
+    /**
+     * Returns the key an export is cached under, or null if it should not be cached. Only exports of the whole
+     * table are cached; a chunked export can be resumed part way through, and sends a trailer a cached copy would
+     * not have, and an incremental export sends a header.
+     *
+     * @param exportOptions The export's options.
+     * @return The key, or null.
+     */
+    /* default */ String key(final ExportOptions exportOptions) {
+
+        if (!this.enabled || exportOptions.isChunked() || exportOptions.isIncremental()) {
+            return null;
+        }
+        return exportOptions.cacheKey() + "@" + this.jdbcTemplate.queryForObject(VERSION_SQL, String.class);
+    }
+
+    /**
+     * Copies the cached output for key to outputStream, if there is any. A hit is recorded as a bulk export of the
+     * number of records that were cached.
+     *
+     * @param key The key from key().
+     * @param outputStream The stream to copy the output to.
+     * @param recording Where to record the export, if it is served.
+     * @return True if the output was cached and has been copied, false if it was not cached.
+     * @throws IOException Any error will be propagated.
+     */
+    /* default */ boolean serve(final String key, final OutputStream outputStream,
+                                final ExportMetrics.Recording recording) throws IOException {
+
+        // The file is opened while holding the lock so it cannot be evicted before it is open. Once it is open, it
+        // can be deleted without affecting the copy.
+        final FileChannel fileChannel;
+        final long rows;
+        synchronized (this) {
+            final Cached cached = this.entries.get(key);
+            if (Objects.isNull(cached)) {
+                this.misses.increment();
+                return false;
+            }
+            fileChannel = FileChannel.open(cached.path, StandardOpenOption.READ);
+            rows = cached.rows;
+        }
+
+        this.hits.increment();
+        recording.bulk();
+        recording.setRows(rows);
+        try (fileChannel) {
+            final WritableByteChannel target = Channels.newChannel(outputStream);
+            final long size = fileChannel.size();
+            long position = 0;
+            while (position < size) {
+                position += fileChannel.transferTo(position, size - position, target);
+            }
+            this.bytesServed.increment(size);
+        }
+        return true;
+    }
+
+    /**
+     * Starts caching an export's output. Everything written to the returned Entry's stream is cached under key
+     * when the entry is committed, and thrown away if it is closed without being committed.
+     *
+     * @param key The key from key().
+     * @return The new entry.
+     * @throws IOException If the file cannot be created.
+     */
+    /* default */ Entry begin(final String key) throws IOException {
+        return new Entry(key, Files.createTempFile(this.directory, "export-", ".tmp"));
+    }
+
+    // Adds a finished file to the cache, replacing any older file for the same key, and evicts the least recently
+    // used files until the cache fits.
+    private synchronized void add(final String key, final Path path, final long size, final long rows) {
+
+        final Cached replaced = this.entries.put(key, new Cached(path, rows));
+        this.cachedBytes.addAndGet(size);
+        if (Objects.nonNull(replaced)) {
+            this.delete(replaced.path);
+        }
+
+        final Iterator<Map.Entry<String, Cached>> iterator = this.entries.entrySet().iterator();
+        while (this.cachedBytes.get() > this.maxBytes && iterator.hasNext()) {
+            final Map.Entry<String, Cached> eldest = iterator.next();
+            iterator.remove();
+            this.delete(eldest.getValue().path);
+        }
+    }
+
+    // Deletes the files a previous run left in the directory. Only files named the way begin() names them are
+    // touched, in case the directory is shared.
+    private void deleteLeftovers() throws IOException {
+
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, EXPORT_FILES)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            logger.info(String.format("Deleted %,d cached exports left in %s by a previous run.", deleted, this.directory));
+        }
+    }
+
+    private void delete(final Path path) {
+        try {
+            final long size = Files.size(path);
+            Files.delete(path);
+            this.cachedBytes.addAndGet(-size);
+        } catch (IOException e) {
+            logger.warn("Unable to delete cached export {}: {}", path, e.getMessage());
+        }
+    }
+
+    // A cached export's file and the number of records in it.
+    private static final class Cached {
+
+        private final Path path;
+        private final long rows;
+
+        private Cached(final Path path, final long rows) {
+            this.path = path;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * An export being written to the cache.
+     */
+    /* default */ final class Entry implements AutoCloseable {
+
+        private final String key;
+        private final Path path;
+        private final OutputStream outputStream;
+
+        private boolean committed = false;
+
+        private Entry(final String key, final Path path) throws IOException {
+            this.key = key;
+            this.path = path;
+            this.outputStream = new BufferedOutputStream(Files.newOutputStream(path), ENTRY_BUFFER_SIZE);
+        }
+
+        /**
+         * Returns the stream to write the export's output to.
+         *
+         * @return The stream.
+         */
+        /* default */ OutputStream getOutputStream() {
+            return this.outputStream;
+        }
+
+        /**
+         * Adds what was written to the cache. Only call this once the export has finished successfully.
+         *
+         * @param rows The number of records the export wrote, to record when it is served from the cache.
+         * @throws IOException Any error will be propagated.
+         */
+        /* default */ void commit(final long rows) throws IOException {
+
+            // Closing flushes what is still buffered, so the size is only taken after.
+            this.outputStream.close();
+            ExportCache.this.add(this.key, this.path, Files.size(this.path), rows);
+            this.committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if (!this.committed) {
+                this.outputStream.close();
+                Files.deleteIfExists(this.path);
+            }
+        }
+    }
+
+    /**
+     * Writes everything written to it to two streams: the response and a cache entry. If writing to the cache
+     * fails, the export carries on without it.
+     */
+    /* default */ static final class TeeOutputStream extends OutputStream {
+
+        private final OutputStream primary;
+        private final OutputStream copy;
+
+        private boolean copyFailed = false;
+
+        /* default */ TeeOutputStream(final OutputStream primary, final OutputStream copy) {
+            this.primary = primary;
+            this.copy = copy;
+        }
+
+        /**
+         * Returns false if writing to the copy failed, in which case it is incomplete and must not be committed.
+         *
+         * @return True if everything written was copied.
+         */
+        /* default */ boolean isCopyComplete() {
+            return !this.copyFailed;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            this.primary.write(b);
+            this.copy(() -> this.copy.write(b));
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            this.primary.write(b, off, len);
+            this.copy(() -> this.copy.write(b, off, len));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.primary.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.primary.close();
+        }
+
+        private void copy(final IoAction action) {
+
+            if (this.copyFailed) {
+                return;
+            }
+            try {
+                action.run();
+            } catch (IOException e) {
+                logger.warn("Unable to write to the export cache, continuing without it: {}", e.getMessage());
+                this.copyFailed = true;
+            }
+        }
+
+        @FunctionalInterface
+        private interface IoAction {
+
+            void run() throws IOException;
+        }
+    }
+}
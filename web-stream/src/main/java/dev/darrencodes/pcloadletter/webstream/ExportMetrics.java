@@ -0,0 +1,240 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records how each export went, tagged by its format, so a slow export can be pinned on the database or the client:
+ * <ul>
+ *     <li>pcloadletter.export.duration: how long the export took, also tagged with its outcome.</li>
+ *     <li>pcloadletter.export.time-to-first-record: how long it took to read the first record and hand it to the
+ *     response.</li>
+ *     <li>pcloadletter.export.db-wait: how long the export spent waiting for the next record from the database.</li>
+ *     <li>pcloadletter.export.client-write: how long the export spent writing to the response, which blocks when
+ *     the client is not keeping up.</li>
+ *     <li>pcloadletter.export.rows, pcloadletter.export.bytes, and pcloadletter.export.rows-per-second: how much
+ *     each export sent, with the bytes counted as they went over the wire, after any compression.</li>
+ * </ul>
+ * Whatever time is in neither db-wait nor client-write was spent building and encoding the records. Each export
+ * also logs one line with the same figures when it finishes.
+ */
+@Component
+public class ExportMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportMetrics.class);
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * The measurements for one export. It is only used by the request's thread, so it needs no synchronization;
+     * timing a record is two calls to System.nanoTime.
+     */
+    /* default */ final class Recording {
+
+        private final String format;
+        private final long start = System.nanoTime();
+
+        private long lastRecordFinished = this.start;
+        private long firstRecordNanos = -1;
+        private long dbWaitNanos = 0;
+        private long clientWriteNanos = 0;
+        private long rows = 0;
+        private long bytes = 0;
+        private boolean bulk = false;
+
+        private Recording(final String format) {
+            this.format = format;
+        }
+
+        /**
+         * Wraps the response's OutputStream so the bytes written to it, and the time spent writing them, are
+         * measured. Wrap the stream before it is compressed.
+         *
+         * @param outputStream The response's OutputStream.
+         * @return A stream that writes to outputStream.
+         */
+        /* default */ OutputStream instrument(final OutputStream outputStream) {
+
+            return new FilterOutputStream(outputStream) {
+                @Override
+                public void write(final int b) throws IOException {
+                    final long writeStart = Recording.this.beforeWrite();
+                    this.out.write(b);
+                    Recording.this.afterWrite(writeStart, 1);
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len) throws IOException {
+                    final long writeStart = Recording.this.beforeWrite();
+                    this.out.write(b, off, len);
+                    Recording.this.afterWrite(writeStart, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    final long writeStart = System.nanoTime();
+                    this.out.flush();
+                    Recording.this.clientWriteNanos += System.nanoTime() - writeStart;
+                }
+            };
+        }
+
+        /**
+         * Wraps a RowCallbackHandler so the time between records, which is time spent waiting on the database, is
+         * measured.
+         *
+         * @param rowCallbackHandler The handler to wrap.
+         * @return A handler that passes each row to rowCallbackHandler.
+         */
+        /* default */ RowCallbackHandler timed(final RowCallbackHandler rowCallbackHandler) {
+
+            return new RowCallbackHandler() {
+                @Override
+                public void processRow(final ResultSet rs) throws SQLException {
+                    Recording.this.recordStarted();
+                    try {
+                        rowCallbackHandler.processRow(rs);
+                    } finally {
+                        Recording.this.recordFinished();
+                    }
+                }
+            };
+        }
+
+        /**
+         * Marks the start of writing a record.
+         */
+        /* default */ void recordStarted() {
+            this.dbWaitNanos += System.nanoTime() - this.lastRecordFinished;
+        }
+
+        /**
+         * Marks the end of writing a record.
+         */
+        /* default */ void recordFinished() {
+
+            this.lastRecordFinished = System.nanoTime();
+            if (this.rows++ == 0) {
+                this.firstRecordNanos = this.lastRecordFinished - this.start;
+            }
+        }
+
+        /**
+         * Marks this export as one whose records are not written one at a time, such as the CSV passthrough or an
+         * export served from the cache. The first write to the response stands in for the first record, and any
+         * time not spent writing is counted as waiting on the database. Call this before anything is written.
+         */
+        /* default */ void bulk() {
+            this.bulk = true;
+        }
+
+        /**
+         * Returns the number of records written so far.
+         *
+         * @return The number of records.
+         */
+        /* default */ long getRows() {
+            return this.rows;
+        }
+
+        /**
+         * Sets the number of records a bulk export wrote.
+         *
+         * @param rowCount The number of records.
+         */
+        /* default */ void setRows(final long rowCount) {
+            this.rows = rowCount;
+        }
+
+        /**
+         * Records the export's metrics and logs them. A cached export never reads from the database, so its time
+         * waiting on the database is not recorded, and is logged as 0.
+         *
+         * @param outcome "success", "error", or "cached".
+         */
+        /* default */ void finish(final String outcome) {
+
+            final boolean cached = "cached".equals(outcome);
+            final long durationNanos = System.nanoTime() - this.start;
+            final long dbWait;
+            if (cached) {
+                dbWait = 0;
+            } else {
+                dbWait = this.bulk ? Math.max(0, durationNanos - this.clientWriteNanos) : this.dbWaitNanos;
+            }
+            final double seconds = durationNanos / 1_000_000_000.0;
+
+            Timer.builder("pcloadletter.export.duration").tag("format", this.format).tag("outcome", outcome)
+                    .register(ExportMetrics.this.meterRegistry).record(durationNanos, TimeUnit.NANOSECONDS);
+            Timer.builder("pcloadletter.export.client-write").tag("format", this.format)
+                    .register(ExportMetrics.this.meterRegistry).record(this.clientWriteNanos, TimeUnit.NANOSECONDS);
+            DistributionSummary.builder("pcloadletter.export.bytes").baseUnit("bytes").tag("format", this.format)
+                    .register(ExportMetrics.this.meterRegistry).record(this.bytes);
+
+            if (!cached) {
+                Timer.builder("pcloadletter.export.db-wait").tag("format", this.format)
+                        .register(ExportMetrics.this.meterRegistry).record(dbWait, TimeUnit.NANOSECONDS);
+            }
+            DistributionSummary.builder("pcloadletter.export.rows").tag("format", this.format)
+                    .register(ExportMetrics.this.meterRegistry).record(this.rows);
+            if (this.firstRecordNanos >= 0) {
+                Timer.builder("pcloadletter.export.time-to-first-record").tag("format", this.format)
+                        .register(ExportMetrics.this.meterRegistry).record(this.firstRecordNanos, TimeUnit.NANOSECONDS);
+            }
+            if (this.rows > 0) {
+                DistributionSummary.builder("pcloadletter.export.rows-per-second").tag("format", this.format)
+                        .register(ExportMetrics.this.meterRegistry).record(this.rows / seconds);
+            }
+
+            logger.info(String.format("Streamed %,d records as %s (%s): %,d bytes in %,d ms (%,.0f records/second), "
+                            + "%,d ms waiting on the database, %,d ms writing to the client.", this.rows, this.format, outcome,
+                    this.bytes, TimeUnit.NANOSECONDS.toMillis(durationNanos), seconds == 0 ? 0.0 : this.rows / seconds,
+                    TimeUnit.NANOSECONDS.toMillis(dbWait), TimeUnit.NANOSECONDS.toMillis(this.clientWriteNanos)));
+        }
+
+        private long beforeWrite() {
+
+            final long now = System.nanoTime();
+            if (this.bulk && this.firstRecordNanos < 0) {
+                this.firstRecordNanos = now - this.start;
+            }
+            return now;
+        }
+
+        private void afterWrite(final long writeStart, final int length) {
+            this.clientWriteNanos += System.nanoTime() - writeStart;
+            this.bytes += length;
+        }
+    }
+
+    /**
+     * Constructs a new ExportMetrics.
+     *
+     * @param meterRegistry Where to record the metrics.
+     */
+    public ExportMetrics(final MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Starts measuring an export.
+     *
+     * @param format The export's format, which the metrics are tagged with.
+     * @return The export's measurements.
+     */
+    /* default */ Recording start(final String format) {
+        return new Recording(format);
+    }
+}
@@ -0,0 +1,457 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Holds the request parameters that control how an export is read and written. Spring binds the request's query
+ * parameters to the properties of this object by name.
+ */
+public class ExportOptions {
+
+    // The columns that can be asked for, named as they are written.
+    private static final List<String> COLUMNS = List.of("id", "text");
+
+    private String format = "json";
+    private boolean chunked = false;
+    private Long after;
+    private Long since;
+    private int chunkSize = 1_000;
+    private int partitions = 1;
+    private boolean ordered = true;
+    private boolean passthrough = false;
+    private boolean direct = false;
+    private int batchSize = 10_000;
+    private Long fromId;
+    private Long toId;
+    private String columns = "id,text";
+    private int textLength = IdWrapper.MAX_STRING_SIZE;
+
+    /**
+     * Returns the format to return the values as. Valid values are "json", "ndjson", "csv", "cbor", or "arrow". Any
+     * other value will return JSON.
+     *
+     * @return The format to return the values as.
+     */
+    public String getFormat() {
+        return this.format;
+    }
+
+    /**
+     * Sets the format to return the values as.
+     *
+     * @param format The format to return the values as.
+     */
+    public void setFormat(final String format) {
+        this.format = format;
+    }
+
+    /**
+     * Returns the name of the format the values will actually be returned as, which is "json" for any format that
+     * is not recognized.
+     *
+     * @return The name of the format.
+     */
+    /* default */ String getFormatName() {
+        return this.isCsv() || this.isArrow() || this.isNdjson() || this.isCbor() ? this.format : "json";
+    }
+
+    /**
+     * Returns true if the format is CSV.
+     *
+     * @return True if the format is CSV.
+     */
+    /* default */ boolean isCsv() {
+        return Objects.equals(this.format, "csv");
+    }
+
+    /**
+     * Returns true if the format is an Arrow IPC stream.
+     *
+     * @return True if the format is an Arrow IPC stream.
+     */
+    /* default */ boolean isArrow() {
+        return Objects.equals(this.format, "arrow");
+    }
+
+    /**
+     * Returns true if the format is newline-delimited JSON.
+     *
+     * @return True if the format is newline-delimited JSON.
+     */
+    /* default */ boolean isNdjson() {
+        return Objects.equals(this.format, "ndjson");
+    }
+
+    /**
+     * Returns true if the format is CBOR records, each preceded by its length.
+     *
+     * @return True if the format is framed CBOR.
+     */
+    /* default */ boolean isCbor() {
+        return Objects.equals(this.format, "cbor");
+    }
+
+    /**
+     * Returns true if the format is only written straight from the ResultSet, which means it cannot be partitioned.
+     *
+     * @return True if the format is only written straight from the ResultSet.
+     */
+    /* default */ boolean isDirectOnly() {
+        return this.isArrow() || this.isNdjson() || this.isCbor();
+    }
+
+    /**
+     * Returns the media type of the format, or null to leave it to Spring.
+     *
+     * @return The media type of the format.
+     */
+    /* default */ String getContentType() {
+
+        if (this.isArrow()) {
+            return ArrowDirectRowWriter.CONTENT_TYPE;
+        } else if (this.isNdjson()) {
+            return JsonDirectRowWriter.NDJSON_CONTENT_TYPE;
+        } else if (this.isCbor()) {
+            return FramedCborDirectRowWriter.CONTENT_TYPE;
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if the records should be read in chunks by ID rather than in a single query. This is implied
+     * if after is set.
+     *
+     * @return True if the records should be read in chunks.
+     */
+    public boolean isChunked() {
+        return this.chunked || Objects.nonNull(this.after);
+    }
+
+    /**
+     * Sets whether the records should be read in chunks by ID.
+     *
+     * @param chunked True if the records should be read in chunks.
+     */
+    public void setChunked(final boolean chunked) {
+        this.chunked = chunked;
+    }
+
+    /**
+     * Returns the cursor to resume an export from. Only records with an ID greater than this will be returned.
+     * The ID of the last record a client received is a valid cursor.
+     *
+     * @return The cursor to resume an export from, or null to start from the beginning.
+     */
+    public Long getAfter() {
+        return this.after;
+    }
+
+    /**
+     * Sets the cursor to resume an export from.
+     *
+     * @param after The cursor to resume an export from.
+     */
+    public void setAfter(final Long after) {
+        this.after = after;
+    }
+
+    /**
+     * Returns the watermark for an incremental export. Only records with an ID greater than this and no greater than
+     * the largest ID when the export starts will be returned. The largest ID is sent back in the X-Watermark header,
+     * to be passed as since on the next incremental export. IDs start at 0, so -1 returns every record. Only
+     * correct when no load is running; see DataStreamEndpoint.incrementalQuery.
+     *
+     * @return The watermark, or null for a full export.
+     */
+    public Long getSince() {
+        return this.since;
+    }
+
+    /**
+     * Sets the watermark for an incremental export.
+     *
+     * @param since The watermark.
+     */
+    public void setSince(final Long since) {
+        this.since = since;
+    }
+
+    /**
+     * Returns true if this is an incremental export, meaning since is set.
+     *
+     * @return True if this is an incremental export.
+     */
+    /* default */ boolean isIncremental() {
+        return Objects.nonNull(this.since);
+    }
+
+    /**
+     * Returns the ID that only records with greater IDs will be returned after, whether or not after was set.
+     *
+     * @return The ID to start after.
+     */
+    /* default */ long getStartAfter() {
+        return Objects.requireNonNullElse(this.after, Long.MIN_VALUE);
+    }
+
+    /**
+     * Returns the number of records to read in each chunk of a chunked or partitioned export, from 1 to
+     * KeysetPagingReader.MAX_CHUNK_SIZE.
+     *
+     * @return The number of records to read in each chunk.
+     */
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * Sets the number of records to read in each chunk of a chunked or partitioned export.
+     *
+     * @param chunkSize The number of records to read in each chunk.
+     */
+    public void setChunkSize(final int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns the number of ID ranges to split the table into and read concurrently, from 1 to
+     * PartitionedSourceReader.MAX_PARTITIONS. If greater than 1, each partition is read in chunks. Fewer partitions are
+     * used if other exports are using most of the connections set aside for partitions.
+     *
+     * @return The number of ID ranges to read concurrently.
+     */
+    public int getPartitions() {
+        return this.partitions;
+    }
+
+    /**
+     * Sets the number of ID ranges to split the table into and read concurrently.
+     *
+     * @param partitions The number of ID ranges to read concurrently.
+     */
+    public void setPartitions(final int partitions) {
+        this.partitions = partitions;
+    }
+
+    /**
+     * Returns false if records from a partitioned export may be written in whatever order the partitions produce
+     * them rather than in ID order.
+     *
+     * @return True if records from a partitioned export must be written in ID order.
+     */
+    public boolean isOrdered() {
+        return this.ordered;
+    }
+
+    /**
+     * Sets whether records from a partitioned export must be written in ID order.
+     *
+     * @param ordered True if records from a partitioned export must be written in ID order.
+     */
+    public void setOrdered(final boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * Returns true if, for CSV, PostgreSQL should produce the CSV itself and have it passed straight through to the
+     * response. The output is the same, but partitioning does not apply, and chunked exports and after are rejected.
+     *
+     * @return True if PostgreSQL should produce the CSV.
+     */
+    public boolean isPassthrough() {
+        return this.passthrough;
+    }
+
+    /**
+     * Sets whether, for CSV, PostgreSQL should produce the CSV itself.
+     *
+     * @param passthrough True if PostgreSQL should produce the CSV.
+     */
+    public void setPassthrough(final boolean passthrough) {
+        this.passthrough = passthrough;
+    }
+
+    /**
+     * Returns true if each record should be written straight from the ResultSet without constructing an object
+     * for it. The output is the same. This does not apply to partitioned exports. Arrow, NDJSON, and CBOR are always
+     * written this way.
+     *
+     * @return True if each record should be written straight from the ResultSet.
+     */
+    public boolean isDirect() {
+        return this.direct;
+    }
+
+    /**
+     * Sets whether each record should be written straight from the ResultSet.
+     *
+     * @param direct True if each record should be written straight from the ResultSet.
+     */
+    public void setDirect(final boolean direct) {
+        this.direct = direct;
+    }
+
+    /**
+     * Returns the number of records to write in each Arrow record batch, from 1 to
+     * ArrowDirectRowWriter.MAX_BATCH_SIZE.
+     *
+     * @return The number of records to write in each Arrow record batch.
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Sets the number of records to write in each Arrow record batch.
+     *
+     * @param batchSize The number of records to write in each Arrow record batch.
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the smallest ID to return.
+     *
+     * @return The smallest ID to return, or null for no lower bound.
+     */
+    public Long getFromId() {
+        return this.fromId;
+    }
+
+    /**
+     * Sets the smallest ID to return.
+     *
+     * @param fromId The smallest ID to return.
+     */
+    public void setFromId(final Long fromId) {
+        this.fromId = fromId;
+    }
+
+    /**
+     * Returns the largest ID to return.
+     *
+     * @return The largest ID to return, or null for no upper bound.
+     */
+    public Long getToId() {
+        return this.toId;
+    }
+
+    /**
+     * Sets the largest ID to return.
+     *
+     * @param toId The largest ID to return.
+     */
+    public void setToId(final Long toId) {
+        this.toId = toId;
+    }
+
+    /**
+     * Returns the comma-separated columns to return, from "id" and "text". The ID is always returned; the text is
+     * only returned if "text" is one of the columns, and is null otherwise.
+     *
+     * @return The columns to return.
+     */
+    public String getColumns() {
+        return this.columns;
+    }
+
+    /**
+     * Sets the comma-separated columns to return.
+     *
+     * @param columns The columns to return.
+     */
+    public void setColumns(final String columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Returns the most characters of text to return. Longer text is truncated and ends with an ellipsis.
+     *
+     * @return The most characters of text to return.
+     */
+    public int getTextLength() {
+        return this.textLength;
+    }
+
+    /**
+     * Sets the most characters of text to return.
+     *
+     * @param textLength The most characters of text to return.
+     */
+    public void setTextLength(final int textLength) {
+        this.textLength = textLength;
+    }
+
+    /**
+     * Checks the options that are not checked by getSelection.
+     *
+     * @throws IllegalArgumentException If chunkSize is not between 1 and KeysetPagingReader.MAX_CHUNK_SIZE,
+     *                                  partitions is not between 1 and PartitionedSourceReader.MAX_PARTITIONS,
+     *                                  partitions is greater than 1 for a format that cannot be partitioned, a CSV
+     *                                  passthrough export is chunked, or batchSize for Arrow is not between 1 and
+     *                                  ArrowDirectRowWriter.MAX_BATCH_SIZE.
+     */
+    /* default */ void validate() {
+
+        if (this.chunkSize < 1 || this.chunkSize > KeysetPagingReader.MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException(String.format("The chunk size must be between 1 and %d.",
+                    KeysetPagingReader.MAX_CHUNK_SIZE));
+        }
+        if (this.partitions < 1 || this.partitions > PartitionedSourceReader.MAX_PARTITIONS) {
+            throw new IllegalArgumentException(String.format("The number of partitions must be between 1 and %d.",
+                    PartitionedSourceReader.MAX_PARTITIONS));
+        }
+        // Rather than quietly reading a single partition.
+        if (this.partitions > 1 && this.isDirectOnly()) {
+            throw new IllegalArgumentException(String.format("The %s format cannot be partitioned.", this.format));
+        }
+        // COPY produces the whole range in one go, so it can neither read in chunks nor resume after an ID.
+        if (this.passthrough && this.isCsv() && this.isChunked() && !this.isIncremental()) {
+            throw new IllegalArgumentException("A passthrough CSV export cannot be chunked or resumed with after.");
+        }
+        if (this.isArrow() && (this.batchSize < 1 || this.batchSize > ArrowDirectRowWriter.MAX_BATCH_SIZE)) {
+            throw new IllegalArgumentException(String.format("The batch size must be between 1 and %d.",
+                    ArrowDirectRowWriter.MAX_BATCH_SIZE));
+        }
+    }
+
+    /**
+     * Returns the records and columns to read, as set by fromId, toId, columns, and textLength.
+     *
+     * @return The records and columns to read.
+     * @throws IllegalArgumentException If textLength is out of range or columns names a column other than "id" or
+     *                                  "text".
+     */
+    /* default */ SourceSelection getSelection() {
+
+        // fromId is inclusive, but reads are expressed as after an ID.
+        final long after = Objects.isNull(this.fromId) || this.fromId == Long.MIN_VALUE ? Long.MIN_VALUE : this.fromId - 1;
+        final long upTo = Objects.requireNonNullElse(this.toId, Long.MAX_VALUE);
+
+        boolean text = false;
+        if (Objects.nonNull(this.columns)) {
+            for (String column : this.columns.split(",")) {
+                final String name = column.trim();
+                if (!COLUMNS.contains(name)) {
+                    throw new IllegalArgumentException(String.format("Unknown column \"%s\". The columns are %s.", name,
+                            String.join(" and ", COLUMNS)));
+                }
+                text |= "text".equals(name);
+            }
+        }
+        return new SourceSelection(after, upTo, text, this.textLength);
+    }
+
+    /**
+     * Returns a string that is the same for any two exports whose output is the same, given the same data. The
+     * options that only change how a chunked export is read are left out, since chunked exports are not cached.
+     *
+     * @return The key to cache the export's output under.
+     */
+    /* default */ String cacheKey() {
+        return String.format("%s;passthrough=%b;direct=%b;partitions=%d;ordered=%b;batchSize=%d;%s", this.format,
+                this.passthrough, this.direct, this.partitions, this.ordered, this.batchSize, this.getSelection());
+    }
+}
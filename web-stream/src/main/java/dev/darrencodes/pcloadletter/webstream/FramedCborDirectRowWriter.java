@@ -0,0 +1,98 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+
+/**
+ * DirectRowWriter that writes each row as a CBOR map preceded by its length in bytes as a four-byte big-endian
+ * integer. A client can read a length, read that many bytes, and hand them to any CBOR parser, or skip over records
+ * without parsing them at all, which makes it cheap to split the stream between workers.
+ * <p>
+ * CBOR was picked over Smile because each CBOR record stands on its own. Smile refers back to names and values
+ * written earlier in the stream, so its records cannot be parsed separately.
+ */
+/* default */ final class FramedCborDirectRowWriter extends DirectRowWriter {
+
+    /**
+     * The media type of the framed CBOR stream.
+     */
+    /* default */ static final String CONTENT_TYPE = "application/vnd.pcloadletter.cbor-frames";
+
+    private static final SerializableString ID_FIELD = new SerializedString("id");
+    private static final SerializableString TEXT_FIELD = new SerializedString("text");
+
+    private final DataOutputStream outputStream;
+    private final RecordBuffer recordBuffer = new RecordBuffer();
+    private final CBORGenerator cborGenerator;
+
+    // Holds truncated text along with its ellipsis. Each UTF-8 character is at most four bytes.
+    private final byte[] truncatedText = new byte[IdWrapper.MAX_STRING_SIZE * 4];
+
+    /**
+     * A ByteArrayOutputStream whose contents can be written without copying them first.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+
+        private void writeFramed(final DataOutputStream outputStream) throws IOException {
+            outputStream.writeInt(this.count);
+            outputStream.write(this.buf, 0, this.count);
+            this.reset();
+        }
+    }
+
+    /**
+     * Constructs a new FramedCborDirectRowWriter.
+     *
+     * @param outputStream The OutputStream to write the records to. It will be closed when this writer is.
+     * @throws IOException Any error will be propagated.
+     */
+    /* default */ FramedCborDirectRowWriter(final OutputStream outputStream) throws IOException {
+
+        this.outputStream = new DataOutputStream(outputStream);
+        // Key point: the generator writes each record into a reusable buffer so its length is known before it is
+        // written to the response.
+        this.cborGenerator = new CBORFactory().createGenerator(this.recordBuffer);
+    }
+
+    @Override
+    protected void writeRow(final long id, final byte[] text, final int textLength, final boolean truncated) throws IOException {
+
+        this.cborGenerator.writeStartObject();
+        this.cborGenerator.writeFieldName(ID_FIELD);
+        this.cborGenerator.writeNumber(id);
+        this.cborGenerator.writeFieldName(TEXT_FIELD);
+        if (Objects.isNull(text)) {
+            this.cborGenerator.writeNull();
+        } else if (truncated) {
+            System.arraycopy(text, 0, this.truncatedText, 0, textLength);
+            System.arraycopy(ELLIPSIS, 0, this.truncatedText, textLength, ELLIPSIS.length);
+            this.cborGenerator.writeUTF8String(this.truncatedText, 0, textLength + ELLIPSIS.length);
+        } else {
+            this.cborGenerator.writeUTF8String(text, 0, textLength);
+        }
+        this.cborGenerator.writeEndObject();
+
+        this.cborGenerator.flush();
+        this.recordBuffer.writeFramed(this.outputStream);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        this.cborGenerator.close();
+        this.outputStream.close();
+    }
+}
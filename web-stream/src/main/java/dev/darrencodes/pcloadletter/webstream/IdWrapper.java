@@ -1,5 +1,7 @@
 package dev.darrencodes.pcloadletter.webstream;
 
+import java.util.Objects;
+
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
 /**
@@ -8,7 +10,10 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 @JsonPropertyOrder({"id", "text"})
 final class IdWrapper {
 
-    private static final int MAX_STRING_SIZE = 50;
+    /**
+     * The longest text value this wrapper will hold. Longer values are truncated and end with an ellipsis.
+     */
+    /* default */ static final int MAX_STRING_SIZE = 50;
 
     private long id;
     private String text;
@@ -55,7 +60,7 @@ final class IdWrapper {
 
     private static String abbreviate(final String s) {
 
-        if (s.length() <= MAX_STRING_SIZE) {
+        if (Objects.isNull(s) || s.length() <= MAX_STRING_SIZE) {
             return s;
         }
 
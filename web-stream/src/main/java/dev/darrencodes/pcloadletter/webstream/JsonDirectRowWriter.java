@@ -0,0 +1,102 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * DirectRowWriter that writes rows as a JSON array of objects with Jackson's streaming JsonGenerator. The
+ * generator escapes the UTF-8 text as it copies it into its own buffer, so nothing is created for each row.
+ * <p>
+ * It can also write newline-delimited JSON: the same objects, one per line, with no enclosing array. JSON escapes
+ * any newline inside a string, so a client can split the stream on newlines and parse each line on its own.
+ */
+/* default */ final class JsonDirectRowWriter extends DirectRowWriter {
+
+    private static final SerializableString ID_FIELD = new SerializedString("id");
+    private static final SerializableString TEXT_FIELD = new SerializedString("text");
+
+    /**
+     * The media type of newline-delimited JSON.
+     */
+    /* default */ static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+    private final JsonGenerator jsonGenerator;
+    private final boolean lineDelimited;
+
+    // Holds truncated text along with its ellipsis. Each UTF-8 character is at most four bytes.
+    private final byte[] truncatedText = new byte[IdWrapper.MAX_STRING_SIZE * 4];
+
+    /**
+     * Constructs a new JsonDirectRowWriter and starts the JSON array.
+     *
+     * @param outputStream The OutputStream to write the JSON array to. It will be closed when this writer is.
+     * @throws IOException Any error will be propagated.
+     */
+    /* default */ JsonDirectRowWriter(final OutputStream outputStream) throws IOException {
+        this(outputStream, false);
+    }
+
+    /**
+     * Constructs a new JsonDirectRowWriter.
+     *
+     * @param outputStream The OutputStream to write the JSON to. It will be closed when this writer is.
+     * @param lineDelimited If true, write each row on its own line with no enclosing array. If false, start the
+     *                      JSON array.
+     * @throws IOException Any error will be propagated.
+     */
+    /* default */ JsonDirectRowWriter(final OutputStream outputStream, final boolean lineDelimited) throws IOException {
+
+        this.jsonGenerator = new JsonFactory().createGenerator(outputStream, JsonEncoding.UTF8);
+        this.lineDelimited = lineDelimited;
+        if (lineDelimited) {
+            // Each line ends with its own newline, so nothing else goes between the root-level objects.
+            this.jsonGenerator.setRootValueSeparator(null);
+        } else {
+            this.jsonGenerator.writeStartArray();
+        }
+    }
+
+    @Override
+    protected void writeRow(final long id, final byte[] text, final int textLength, final boolean truncated) throws IOException {
+
+        this.jsonGenerator.writeStartObject();
+        this.jsonGenerator.writeFieldName(ID_FIELD);
+        this.jsonGenerator.writeNumber(id);
+        this.jsonGenerator.writeFieldName(TEXT_FIELD);
+        if (Objects.isNull(text)) {
+            this.jsonGenerator.writeNull();
+        } else if (truncated) {
+            // The ellipsis has to be part of the same JSON string, so copy both into one buffer.
+            System.arraycopy(text, 0, this.truncatedText, 0, textLength);
+            System.arraycopy(ELLIPSIS, 0, this.truncatedText, textLength, ELLIPSIS.length);
+            this.jsonGenerator.writeUTF8String(this.truncatedText, 0, textLength + ELLIPSIS.length);
+        } else {
+            this.jsonGenerator.writeUTF8String(text, 0, textLength);
+        }
+        this.jsonGenerator.writeEndObject();
+        if (this.lineDelimited) {
+            this.jsonGenerator.writeRaw('\n');
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.jsonGenerator.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if (!this.lineDelimited) {
+            this.jsonGenerator.writeEndArray();
+        }
+        this.jsonGenerator.close();
+    }
+}
@@ -0,0 +1,162 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Reads the source table in chunks by walking its primary key. Each chunk is its own query, so the pooled
+ * connection is borrowed for a chunk and returned before the next one starts rather than being held for the
+ * entire export. Because each chunk picks up after the last ID the previous one returned, a reader that stops
+ * part of the way through can resume from the last ID it saw.
+ * <p>
+ * Only the records and columns in its SourceSelection are read, whatever range it is asked for.
+ */
+/* default */ final class KeysetPagingReader {
+
+    /**
+     * The most rows a request can ask for in each chunk. A partitioned export holds a whole chunk in memory for each
+     * partition, so this bounds what a single request can make the application hold.
+     */
+    /* default */ static final int MAX_CHUNK_SIZE = 100_000;
+
+    private static final String CHUNK_SQL =
+            "select id, %s as text_val from pc_load_letter.source where id > ? and id <= ? order by id limit ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int chunkSize;
+    private final SourceSelection sourceSelection;
+    private final String chunkSql;
+
+    /**
+     * RowCallbackHandler that passes each row on to another handler while keeping track of the last ID
+     * it saw and how many rows were in the current chunk.
+     */
+    private static final class KeyTrackingCallbackHandler implements RowCallbackHandler {
+
+        private final RowCallbackHandler delegate;
+
+        private long lastId;
+        private int chunkRowCount;
+
+        private KeyTrackingCallbackHandler(final RowCallbackHandler delegate, final long lastId) {
+            this.delegate = delegate;
+            this.lastId = lastId;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            this.delegate.processRow(rs);
+            this.lastId = rs.getLong("id");
+            this.chunkRowCount++;
+        }
+    }
+
+    /**
+     * Constructs a new KeysetPagingReader.
+     *
+     * @param jdbcTemplate The JdbcTemplate to run each chunk's query with.
+     * @param chunkSize The maximum number of rows to read in each chunk.
+     * @throws IllegalArgumentException If chunkSize is less than 1.
+     */
+    /* default */ KeysetPagingReader(final JdbcTemplate jdbcTemplate, final int chunkSize) {
+        this(jdbcTemplate, chunkSize, SourceSelection.ALL);
+    }
+
+    /**
+     * Constructs a new KeysetPagingReader that only reads some of the records and columns.
+     *
+     * @param jdbcTemplate The JdbcTemplate to run each chunk's query with.
+     * @param chunkSize The maximum number of rows to read in each chunk.
+     * @param sourceSelection The records and columns to read.
+     * @throws IllegalArgumentException If chunkSize is less than 1.
+     */
+    /* default */ KeysetPagingReader(final JdbcTemplate jdbcTemplate, final int chunkSize, final SourceSelection sourceSelection) {
+
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be at least 1.");
+        }
+
+        this.jdbcTemplate = jdbcTemplate;
+        this.chunkSize = chunkSize;
+        this.sourceSelection = sourceSelection;
+        this.chunkSql = String.format(CHUNK_SQL, sourceSelection.getTextColumn());
+    }
+
+    /**
+     * Reads every row with an ID greater than after, in ID order, passing each to rowCallbackHandler.
+     *
+     * @param after Only rows with an ID greater than this will be read.
+     * @param rowCallbackHandler The handler to pass each row to.
+     * @return The ID of the last row read, or after if no rows were read. This can be passed back in as
+     *         after to pick up where this read left off.
+     */
+    /* default */ long read(final long after, final RowCallbackHandler rowCallbackHandler) {
+        return this.read(after, Long.MAX_VALUE, rowCallbackHandler);
+    }
+
+    /**
+     * Reads a single chunk of rows with an ID greater than after, in ID order, passing each to rowCallbackHandler.
+     * If fewer rows than the chunk size are read, there are no more rows to read.
+     *
+     * @param after Only rows with an ID greater than this will be read.
+     * @param rowCallbackHandler The handler to pass each row to.
+     * @return The ID of the last row read, or after if no rows were read.
+     */
+    /* default */ long readChunk(final long after, final RowCallbackHandler rowCallbackHandler) {
+        return this.readChunk(after, Long.MAX_VALUE, rowCallbackHandler);
+    }
+
+    /**
+     * Reads a single chunk of rows with an ID greater than after and no greater than upTo, in ID order, passing each
+     * to rowCallbackHandler. If fewer rows than the chunk size are read, there are no more rows in the range.
+     *
+     * @param after Only rows with an ID greater than this will be read.
+     * @param upTo Only rows with an ID less than or equal to this will be read.
+     * @param rowCallbackHandler The handler to pass each row to.
+     * @return The ID of the last row read, or after if no rows were read.
+     */
+    /* default */ long readChunk(final long after, final long upTo, final RowCallbackHandler rowCallbackHandler) {
+
+        final KeyTrackingCallbackHandler keyTrackingCallbackHandler = new KeyTrackingCallbackHandler(rowCallbackHandler, after);
+        this.jdbcTemplate.query(this.chunkSql, keyTrackingCallbackHandler, Math.max(after, this.sourceSelection.getAfter()),
+                Math.min(upTo, this.sourceSelection.getUpTo()), this.chunkSize);
+        return keyTrackingCallbackHandler.lastId;
+    }
+
+    /**
+     * Returns the maximum number of rows read in each chunk.
+     *
+     * @return The maximum number of rows read in each chunk.
+     */
+    /* default */ int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * Reads every row with an ID greater than after and no greater than upTo, in ID order, passing each to
+     * rowCallbackHandler.
+     *
+     * @param after Only rows with an ID greater than this will be read.
+     * @param upTo Only rows with an ID less than or equal to this will be read.
+     * @param rowCallbackHandler The handler to pass each row to.
+     * @return The ID of the last row read, or after if no rows were read.
+     */
+    /* default */ long read(final long after, final long upTo, final RowCallbackHandler rowCallbackHandler) {
+
+        final KeyTrackingCallbackHandler keyTrackingCallbackHandler =
+                new KeyTrackingCallbackHandler(rowCallbackHandler, Math.max(after, this.sourceSelection.getAfter()));
+        final long selectedUpTo = Math.min(upTo, this.sourceSelection.getUpTo());
+
+        // A chunk that comes back short means we have hit the end of the range.
+        do {
+            keyTrackingCallbackHandler.chunkRowCount = 0;
+            this.jdbcTemplate.query(this.chunkSql, keyTrackingCallbackHandler, keyTrackingCallbackHandler.lastId, selectedUpTo,
+                    this.chunkSize);
+        } while (keyTrackingCallbackHandler.chunkRowCount == this.chunkSize);
+
+        return keyTrackingCallbackHandler.lastId;
+    }
+}
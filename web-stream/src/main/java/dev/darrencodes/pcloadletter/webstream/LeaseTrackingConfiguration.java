@@ -0,0 +1,48 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import javax.sql.DataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Wraps the application's DataSource in a LeaseTrackingDataSource when pcloadletter.lease-tracking.enabled is true,
+ * so every connection the exports borrow is tracked. Anything that needs the pool itself, such as PoolAutoSizer or
+ * the pool metrics, can still reach it with unwrap.
+ */
+@Configuration
+@ConditionalOnProperty("pcloadletter.lease-tracking.enabled")
+public class LeaseTrackingConfiguration {
+
+    /**
+     * Wraps each DataSource bean as it is created. The method is static, and the registry looked up lazily, so the
+     * post-processor can be created before the rest of the application's beans.
+     *
+     * @param meterRegistry Where to record lease times and leaks.
+     * @param environment Holds the threshold and stack sample rate.
+     * @return The post-processor.
+     */
+    @Bean
+    public static BeanPostProcessor leaseTrackingPostProcessor(final ObjectProvider<MeterRegistry> meterRegistry,
+                                                               final Environment environment) {
+
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(final Object bean, final String beanName) {
+
+                if (!(bean instanceof DataSource) || bean instanceof LeaseTrackingDataSource) {
+                    return bean;
+                }
+
+                return new LeaseTrackingDataSource((DataSource) bean, meterRegistry.getObject(),
+                        environment.getProperty("pcloadletter.lease-tracking.threshold-millis", Long.class, 30_000L),
+                        environment.getProperty("pcloadletter.lease-tracking.stack-sample-rate", Integer.class, 100));
+            }
+        };
+    }
+}
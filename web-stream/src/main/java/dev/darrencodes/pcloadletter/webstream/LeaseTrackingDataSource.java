@@ -0,0 +1,232 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sql.DataSource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Wraps a DataSource to find connections that are held too long or never returned. Each connection it hands out
+ * is tracked from when it is borrowed until it is closed: how long it has been held, how many statements are open
+ * on it, and, for a sample of borrows, the stack that borrowed it.
+ * <p>
+ * How long each connection was held is recorded in the pcloadletter.connection.lease timer. Connections still held
+ * after the threshold are logged once as possible leaks, with the borrowing stack if it was captured, and counted
+ * in pcloadletter.connection.leaks.
+ * <p>
+ * Key point: capturing a stack trace is the one expensive thing a borrow could do, so only one borrow in every
+ * stackSampleRate captures it. A leak that happens regularly will be caught with its stack soon enough; everything
+ * else a borrow does is a clock read and a map update.
+ */
+public class LeaseTrackingDataSource extends DelegatingDataSource implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaseTrackingDataSource.class);
+
+    private final long thresholdNanos;
+    private final int stackSampleRate;
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+    private final AtomicLong borrows = new AtomicLong();
+    private final Timer leaseTimer;
+    private final Counter leakCounter;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Constructs a new LeaseTrackingDataSource and starts checking for connections held past the threshold.
+     *
+     * @param targetDataSource The DataSource to borrow connections from.
+     * @param meterRegistry Where to record lease times and leaks.
+     * @param thresholdMillis How long a connection can be held before it is reported.
+     * @param stackSampleRate Capture the borrowing stack for one in this many borrows; 1 captures every one.
+     * @throws IllegalArgumentException If thresholdMillis or stackSampleRate is less than 1.
+     */
+    public LeaseTrackingDataSource(final DataSource targetDataSource, final MeterRegistry meterRegistry,
+                                   final long thresholdMillis, final int stackSampleRate) {
+
+        super(targetDataSource);
+
+        if (thresholdMillis < 1 || stackSampleRate < 1) {
+            throw new IllegalArgumentException("The threshold and stack sample rate must be at least 1.");
+        }
+
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.stackSampleRate = stackSampleRate;
+
+        this.leaseTimer = Timer.builder("pcloadletter.connection.lease")
+                .description("How long connections were held before being returned")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.leakCounter = Counter.builder("pcloadletter.connection.leaks")
+                .description("Connections held longer than the lease threshold")
+                .register(meterRegistry);
+        meterRegistry.gauge("pcloadletter.connection.leased", this.leases, Set::size);
+
+        // Checking twice per threshold reports a leak no later than one and a half thresholds after the borrow.
+        final long checkMillis = Math.max(1, thresholdMillis / 2);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("lease-tracker-"));
+        this.scheduler.scheduleWithFixedDelay(this::reportLongLeases, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return this.track(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        return this.track(super.getConnection(username, password));
+    }
+
+    /**
+     * Stops checking for long leases and closes the target DataSource if it can be closed. Spring closes the
+     * DataSource bean through this method once it has been wrapped, so the pool has to be closed here.
+     *
+     * @throws Exception Any error closing the target will be propagated.
+     */
+    @Override
+    public void close() throws Exception {
+
+        this.scheduler.shutdownNow();
+        if (this.obtainTargetDataSource() instanceof AutoCloseable) {
+            ((AutoCloseable) this.obtainTargetDataSource()).close();
+        }
+    }
+
+    // Starts a lease for a newly borrowed connection and hands back a proxy that ends it on close.
+    private Connection track(final Connection connection) {
+
+        final Throwable borrowedAt = this.borrows.getAndIncrement() % this.stackSampleRate == 0
+                ? new Throwable("Connection borrowed here")
+                : null;
+        final Lease lease = new Lease(Thread.currentThread().getName(), borrowedAt);
+        this.leases.add(lease);
+
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+                new ConnectionHandler(connection, lease));
+    }
+
+    // Ends a lease and records how long it lasted. Closing a connection twice only ends its lease once.
+    private void release(final Lease lease) {
+        if (this.leases.remove(lease)) {
+            this.leaseTimer.record(System.nanoTime() - lease.startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Logs each lease held past the threshold the first time it is seen.
+    private void reportLongLeases() {
+
+        final long now = System.nanoTime();
+        for (Lease lease : this.leases) {
+            final long heldNanos = now - lease.startNanos;
+            if (heldNanos > this.thresholdNanos && !lease.reported) {
+                lease.reported = true;
+                this.leakCounter.increment();
+
+                final String message = String.format("Connection borrowed by %s has been held for %,d ms with %d open statements.",
+                        lease.threadName, TimeUnit.NANOSECONDS.toMillis(heldNanos), lease.openStatements.get());
+                if (Objects.nonNull(lease.borrowedAt)) {
+                    logger.warn(message, lease.borrowedAt);
+                } else {
+                    logger.warn(message + " Its stack was not sampled.");
+                }
+            }
+        }
+    }
+
+    // Calls through to the target, unwrapping the exception it throws.
+    private static Object invoke(final Object target, final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    // One borrowed connection. Leases are compared by identity.
+    private static final class Lease {
+
+        private final long startNanos = System.nanoTime();
+        private final AtomicInteger openStatements = new AtomicInteger();
+        private final String threadName;
+        private final Throwable borrowedAt;
+        private volatile boolean reported;
+
+        private Lease(final String threadName, final Throwable borrowedAt) {
+            this.threadName = threadName;
+            this.borrowedAt = borrowedAt;
+        }
+    }
+
+    // Ends the lease when the connection is closed and counts the statements created on it.
+    private final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+        private final Lease lease;
+
+        private ConnectionHandler(final Connection connection, final Lease lease) {
+            this.connection = connection;
+            this.lease = lease;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+
+            switch (method.getName()) {
+                case "close":
+                    try {
+                        return LeaseTrackingDataSource.invoke(this.connection, method, args);
+                    } finally {
+                        this.lease.openStatements.set(0);
+                        LeaseTrackingDataSource.this.release(this.lease);
+                    }
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "createStatement":
+                case "prepareStatement":
+                case "prepareCall": {
+                    final Statement statement = (Statement) LeaseTrackingDataSource.invoke(this.connection, method, args);
+                    this.lease.openStatements.incrementAndGet();
+                    return this.wrapStatement(statement, method.getReturnType());
+                }
+                default:
+                    return LeaseTrackingDataSource.invoke(this.connection, method, args);
+            }
+        }
+
+        // Wraps a statement so closing it is counted. The proxy implements the same interface the method returned,
+        // so a PreparedStatement is still a PreparedStatement.
+        private Object wrapStatement(final Statement statement, final Class<?> statementType) {
+
+            final AtomicBoolean closed = new AtomicBoolean();
+            return Proxy.newProxyInstance(statementType.getClassLoader(), new Class<?>[] {statementType},
+                    (proxy, method, args) -> {
+                        if ("close".equals(method.getName()) && closed.compareAndSet(false, true)) {
+                            this.lease.openStatements.updateAndGet(count -> Math.max(0, count - 1));
+                        }
+                        return LeaseTrackingDataSource.invoke(statement, method, args);
+                    });
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Reads the source table by splitting it into ID ranges and reading each range on its own thread, in chunks, on
+ * pooled connections. Records are constructed on the reading threads and handed to the request thread in small
+ * batches through bounded queues, so the number of records in memory at any one time is at most a chunk and a few
+ * batches for each partition and does not depend on the size of the table.
+ * <p>
+ * When the output must be in ID order, each partition has its own queue and the request thread drains them one
+ * after the other. The ranges do not overlap, so this is a merge in ID order; later partitions read ahead until
+ * their queues fill and then wait their turn. When order does not matter, all partitions share one queue and records
+ * are written as soon as any partition produces them.
+ * <p>
+ * Key point: a partition reads a whole chunk into memory and lets its query return the connection before it puts
+ * anything on its queue. A partition waiting for room on its queue never holds a connection, so partitions that have
+ * read ahead cannot starve the one being drained. The partitions of every export also share a limited number of
+ * permits, kept below the size of the connection pool, so concurrent partitioned exports cannot take every
+ * connection between them.
+ */
+/* default */ final class PartitionedSourceReader {
+
+    /**
+     * The largest number of partitions a table can be split into. This is kept below the size of Hikari's default
+     * pool.
+     */
+    /* default */ static final int MAX_PARTITIONS = 8;
+
+    private static final int BATCH_SIZE = 500;
+    private static final int QUEUED_BATCHES_PER_PARTITION = 4;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final KeysetPagingReader keysetPagingReader;
+    private final SourceSelection sourceSelection;
+    private final int partitions;
+    private final boolean ordered;
+    private final Semaphore partitionPermits;
+
+    /**
+     * Constructs a new PartitionedSourceReader.
+     *
+     * @param jdbcTemplate The JdbcTemplate to run each query with.
+     * @param partitions The number of ID ranges to split the table into and read concurrently.
+     * @param ordered If true, records will be written in ID order.
+     * @param chunkSize The maximum number of records each partition reads in one query.
+     * @param sourceSelection The records and columns to read.
+     * @param partitionPermits The permits shared by every partitioned export. Each partition holds one while it
+     *                         runs; if fewer are free than partitions, the table is split into fewer ranges.
+     * @throws IllegalArgumentException If partitions is less than 1 or greater than MAX_PARTITIONS, or chunkSize is
+     *                                  less than 1.
+     */
+    /* default */ PartitionedSourceReader(final JdbcTemplate jdbcTemplate, final int partitions, final boolean ordered,
+                                          final int chunkSize, final SourceSelection sourceSelection,
+                                          final Semaphore partitionPermits) {
+
+        if (partitions < 1 || partitions > MAX_PARTITIONS) {
+            throw new IllegalArgumentException(String.format("The number of partitions must be between 1 and %d.", MAX_PARTITIONS));
+        }
+
+        this.jdbcTemplate = jdbcTemplate;
+        this.keysetPagingReader = new KeysetPagingReader(this.jdbcTemplate, chunkSize, sourceSelection);
+        this.sourceSelection = sourceSelection;
+        this.partitions = partitions;
+        this.ordered = ordered;
+        this.partitionPermits = partitionPermits;
+    }
+
+    /**
+     * Creates the permits every partitioned export shares. Each partition holds one while it runs.
+     *
+     * @param dataSource The pool the partitions read from.
+     * @param partitionConnections The number of partitions all exports may run at once, or 0 for one less than the
+     *                             pool's maximum size, so partitioned exports always leave a connection for other
+     *                             requests. A pool that is not Hikari's is taken to be the size of Hikari's default.
+     * @return The permits.
+     * @throws IllegalArgumentException If partitionConnections is negative.
+     * @throws SQLException If the data source cannot be unwrapped.
+     */
+    /* default */ static Semaphore newPermits(final DataSource dataSource, final int partitionConnections) throws SQLException {
+
+        if (partitionConnections < 0) {
+            throw new IllegalArgumentException("The number of partition connections cannot be negative.");
+        }
+        if (partitionConnections > 0) {
+            return new Semaphore(partitionConnections);
+        }
+
+        final int poolSize = dataSource.isWrapperFor(HikariDataSource.class)
+                ? dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize()
+                : 10;
+        return new Semaphore(Math.max(1, poolSize - 1));
+    }
+
+    /**
+     * Reads every record with an ID greater than after and writes it with sequenceWritingCallbackHandler. Records
+     * are constructed with the handler's RowMapper on the partitions' threads and written on the calling thread.
+     *
+     * @param after Only records with an ID greater than this will be read.
+     * @param sequenceWritingCallbackHandler The handler to construct and write records with.
+     * @param <T> The type of object to write.
+     * @throws IOException Any error writing the records will be propagated.
+     */
+    /* default */ <T> void read(final long after, final SequenceWritingCallbackHandler<T> sequenceWritingCallbackHandler) throws IOException {
+
+        final long[] bounds = this.jdbcTemplate.queryForObject(
+                "select min(id), max(id) from pc_load_letter.source where id > ? and id <= ?",
+                (rs, i) -> Objects.isNull(rs.getObject(1)) ? null : new long[] {rs.getLong(1), rs.getLong(2)},
+                Math.max(after, this.sourceSelection.getAfter()), this.sourceSelection.getUpTo());
+        if (Objects.isNull(bounds)) {
+            return;
+        }
+
+        final int granted;
+        try {
+            granted = this.acquirePermits();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to start partitions");
+        }
+
+        final List<long[]> ranges = split(bounds[0], bounds[1], granted);
+        // Each partition gives back its own permit when it finishes. Any that were not needed are given back now.
+        this.partitionPermits.release(granted - ranges.size());
+        this.readRanges(ranges, sequenceWritingCallbackHandler);
+    }
+
+    // Takes as many permits as are free, up to the number of partitions, or waits for one if none are.
+    private int acquirePermits() throws InterruptedException {
+
+        for (int wanted = this.partitions; wanted > 0; wanted--) {
+            if (this.partitionPermits.tryAcquire(wanted)) {
+                return wanted;
+            }
+        }
+        this.partitionPermits.acquire();
+        return 1;
+    }
+
+    // Reads each range on its own thread, holding one permit for each.
+    private <T> void readRanges(final List<long[]> ranges,
+                                final SequenceWritingCallbackHandler<T> sequenceWritingCallbackHandler) throws IOException {
+
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+        // Either one queue per partition, or a single queue they all share.
+        final List<BlockingQueue<List<T>>> queues = new ArrayList<>(ranges.size());
+        final BlockingQueue<List<T>> sharedQueue = new ArrayBlockingQueue<>(QUEUED_BATCHES_PER_PARTITION * ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            if (this.ordered) {
+                queues.add(new ArrayBlockingQueue<>(QUEUED_BATCHES_PER_PARTITION));
+            } else {
+                queues.add(sharedQueue);
+            }
+        }
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(ranges.size(),
+                new CustomizableThreadFactory("partition-"));
+        try {
+            for (int i = 0; i < ranges.size(); i++) {
+                final long[] range = ranges.get(i);
+                final BlockingQueue<List<T>> queue = queues.get(i);
+                executorService.execute(() -> this.readPartition(range[0], range[1],
+                        sequenceWritingCallbackHandler.getRowMapper(), queue, failure));
+            }
+
+            if (this.ordered) {
+                for (BlockingQueue<List<T>> queue : queues) {
+                    drain(queue, 1, sequenceWritingCallbackHandler, failure);
+                }
+            } else {
+                drain(sharedQueue, ranges.size(), sequenceWritingCallbackHandler, failure);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for records");
+        } finally {
+            // If we stopped early, this will wake up any partitions waiting on a full queue so they can give up.
+            // Partitions that never started will not give back their permits, so they are given back here.
+            this.partitionPermits.release(executorService.shutdownNow().size());
+        }
+    }
+
+    // Reads a single partition a chunk at a time and puts its records on the queue in batches, followed by an empty
+    // batch to mark the end of the partition. Runs on one of the partition threads.
+    private <T> void readPartition(final long after, final long upTo, final RowMapper<T> rowMapper,
+                                   final BlockingQueue<List<T>> queue, final AtomicReference<RuntimeException> failure) {
+
+        try {
+            long lastId = after;
+            int chunkRowCount;
+            do {
+                // Not sized to the chunk, which may be far larger than the rows left in the partition.
+                final List<T> chunk = new ArrayList<>();
+                lastId = this.keysetPagingReader.readChunk(lastId, upTo, rs -> chunk.add(rowMapper.mapRow(rs, chunk.size())));
+                chunkRowCount = chunk.size();
+
+                // Key point: the chunk's connection is back in the pool by now. Blocking until there is room on the
+                // queue is what keeps a partition from reading too far ahead.
+                for (int start = 0; start < chunkRowCount; start += BATCH_SIZE) {
+                    queue.put(chunk.subList(start, Math.min(start + BATCH_SIZE, chunkRowCount)));
+                }
+            } while (chunkRowCount == this.keysetPagingReader.getChunkSize());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+
+        try {
+            queue.put(Collections.emptyList());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.partitionPermits.release();
+        }
+    }
+
+    // Writes batches from the queue until the given number of partitions have ended.
+    private static <T> void drain(final BlockingQueue<List<T>> queue, final int partitionCount,
+                                  final SequenceWritingCallbackHandler<T> sequenceWritingCallbackHandler,
+                                  final AtomicReference<RuntimeException> failure) throws IOException, InterruptedException {
+
+        int remaining = partitionCount;
+        while (remaining > 0) {
+            final List<T> batch = queue.take();
+
+            final RuntimeException e = failure.get();
+            if (Objects.nonNull(e)) {
+                throw e;
+            }
+
+            if (batch.isEmpty()) {
+                remaining--;
+            }
+            for (T value : batch) {
+                sequenceWritingCallbackHandler.write(value);
+            }
+        }
+    }
+
+    // Splits the IDs from min to max into at most partitionCount ranges of roughly equal width. Each range is
+    // expressed as {after, upTo}.
+    private static List<long[]> split(final long min, final long max, final int partitionCount) {
+
+        final long span = max - min + 1;
+        final int rangeCount = (int) Math.min(partitionCount, span);
+
+        final List<long[]> ranges = new ArrayList<>(rangeCount);
+        long after = min - 1;
+        for (int i = 0; i < rangeCount; i++) {
+            final long upTo = i == rangeCount - 1 ? max : min - 1 + span * (i + 1) / rangeCount;
+            ranges.add(new long[] {after, upTo});
+            after = upTo;
+        }
+
+        return ranges;
+    }
+}
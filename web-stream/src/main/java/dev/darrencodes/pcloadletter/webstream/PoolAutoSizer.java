@@ -0,0 +1,160 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Grows the connection pool while exports are waiting for connections and shrinks it again once they stop, within
+ * configured bounds. It runs when pcloadletter.pool.auto-size.enabled is true.
+ * <p>
+ * Every interval, it checks how many threads are waiting for a connection. Once some have been waiting for
+ * grow-after checks in a row, the pool's maximum size is raised by step, or by the number waiting if that is more.
+ * Once none have waited for shrink-after checks in a row and at least step connections are idle, it is lowered by
+ * step. A new maximum takes effect right away when growing; when shrinking, Hikari retires the extra connections as
+ * they go idle.
+ * <p>
+ * Key point: this buys headroom, not capacity. Each connection is a PostgreSQL backend process, so max should be set
+ * to what the database can serve across every node, not to the largest spike seen.
+ */
+@Component
+@ConditionalOnProperty("pcloadletter.pool.auto-size.enabled")
+public class PoolAutoSizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(PoolAutoSizer.class);
+
+    private final HikariDataSource dataSource;
+    private final int minSize;
+    private final int maxSize;
+    private final int step;
+    private final int growAfter;
+    private final int shrinkAfter;
+    private final AtomicInteger targetSize;
+    private final Counter grows;
+    private final Counter shrinks;
+    private final ScheduledExecutorService scheduler;
+
+    private int pressuredChecks;
+    private int calmChecks;
+
+    /**
+     * Constructs a new PoolAutoSizer and starts checking the pool.
+     *
+     * @param dataSource The pool to size. It must be, or wrap, a HikariDataSource.
+     * @param meterRegistry Where to publish the pool's target size and how often it changed.
+     * @param minSize The smallest the pool's maximum size may be set to.
+     * @param maxSize The largest the pool's maximum size may be set to.
+     * @param step The number of connections to add or remove at a time.
+     * @param intervalMillis How often to check the pool.
+     * @param growAfter The number of checks in a row threads must be waiting before the pool grows.
+     * @param shrinkAfter The number of checks in a row no threads may be waiting before the pool shrinks.
+     * @throws IllegalArgumentException If the data source is not a HikariDataSource, or the bounds are invalid.
+     * @throws SQLException If the data source cannot be unwrapped.
+     */
+    public PoolAutoSizer(final DataSource dataSource, final MeterRegistry meterRegistry,
+                         @Value("${pcloadletter.pool.auto-size.min:10}") final int minSize,
+                         @Value("${pcloadletter.pool.auto-size.max:40}") final int maxSize,
+                         @Value("${pcloadletter.pool.auto-size.step:5}") final int step,
+                         @Value("${pcloadletter.pool.auto-size.interval-millis:1000}") final long intervalMillis,
+                         @Value("${pcloadletter.pool.auto-size.grow-after:3}") final int growAfter,
+                         @Value("${pcloadletter.pool.auto-size.shrink-after:60}") final int shrinkAfter) throws SQLException {
+
+        if (!dataSource.isWrapperFor(HikariDataSource.class)) {
+            throw new IllegalArgumentException("Only a Hikari pool can be sized automatically.");
+        }
+        if (minSize < 1 || maxSize < minSize || step < 1 || intervalMillis < 1 || growAfter < 1 || shrinkAfter < 1) {
+            throw new IllegalArgumentException("The pool size bounds, step, interval, and check counts must be positive, "
+                    + "and the maximum must not be less than the minimum.");
+        }
+
+        this.dataSource = dataSource.unwrap(HikariDataSource.class);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.step = step;
+        this.growAfter = growAfter;
+        this.shrinkAfter = shrinkAfter;
+
+        final HikariConfigMXBean config = this.dataSource.getHikariConfigMXBean();
+        this.targetSize = new AtomicInteger(Math.max(minSize, Math.min(maxSize, config.getMaximumPoolSize())));
+        config.setMaximumPoolSize(this.targetSize.get());
+
+        Gauge.builder("pcloadletter.pool.target-size", this.targetSize, AtomicInteger::get)
+                .description("The maximum pool size the auto-sizer has set")
+                .register(meterRegistry);
+        this.grows = Counter.builder("pcloadletter.pool.resizes").tag("direction", "grow").register(meterRegistry);
+        this.shrinks = Counter.builder("pcloadletter.pool.resizes").tag("direction", "shrink").register(meterRegistry);
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new CustomizableThreadFactory("pool-auto-sizer-"));
+        this.scheduler.scheduleWithFixedDelay(this::check, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops checking the pool.
+     */
+    @PreDestroy
+    public void stop() {
+        this.scheduler.shutdownNow();
+    }
+
+    // Looks at the pool once and resizes it if the pressure, or lack of it, has lasted long enough.
+    private void check() {
+
+        // The pool is not started until the first connection is borrowed.
+        final HikariPoolMXBean pool = this.dataSource.getHikariPoolMXBean();
+        if (Objects.isNull(pool)) {
+            return;
+        }
+
+        final int waiting = pool.getThreadsAwaitingConnection();
+        if (waiting > 0) {
+            this.pressuredChecks++;
+            this.calmChecks = 0;
+        } else {
+            this.calmChecks++;
+            this.pressuredChecks = 0;
+        }
+
+        final int current = this.targetSize.get();
+        if (this.pressuredChecks >= this.growAfter && current < this.maxSize) {
+            this.resize(current, Math.min(this.maxSize, current + Math.max(this.step, waiting)), waiting);
+            this.grows.increment();
+            this.pressuredChecks = 0;
+        } else if (this.calmChecks >= this.shrinkAfter && current > this.minSize
+                && pool.getIdleConnections() >= this.step) {
+            this.resize(current, Math.max(this.minSize, current - this.step), waiting);
+            this.shrinks.increment();
+            this.calmChecks = 0;
+        }
+    }
+
+    private void resize(final int current, final int next, final int waiting) {
+
+        final HikariConfigMXBean config = this.dataSource.getHikariConfigMXBean();
+        // Idle connections beyond minimumIdle are the only ones Hikari retires, so it cannot be above the maximum.
+        if (config.getMinimumIdle() > next) {
+            config.setMinimumIdle(next);
+        }
+        config.setMaximumPoolSize(next);
+        this.targetSize.set(next);
+
+        logger.info(String.format("Resized the connection pool from %d to %d with %d threads waiting.", current, next, waiting));
+    }
+}
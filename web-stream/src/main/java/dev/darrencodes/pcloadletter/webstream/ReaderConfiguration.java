@@ -0,0 +1,23 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Reads the ReaderSettings every export applies from the pcloadletter.reader properties.
+ */
+@Configuration
+public class ReaderConfiguration {
+
+    /**
+     * Reads the settings every export applies when it reads from the database.
+     *
+     * @param environment Holds the pcloadletter.reader properties.
+     * @return The settings.
+     */
+    @Bean
+    /* default */ ReaderSettings readerSettings(final Environment environment) {
+        return ReaderSettings.from(environment);
+    }
+}
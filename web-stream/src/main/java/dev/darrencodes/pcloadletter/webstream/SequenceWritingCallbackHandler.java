@@ -5,24 +5,22 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import com.fasterxml.jackson.databind.SequenceWriter;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 
 /**
  * RowCallbackHandler that will construct an object from each row in a ResultSet and write it
  * to a Jackson SequenceWriter. Clients of this class hold the responsibility of closing the SequenceWriter
- * after all objects have been written.
+ * after all objects have been written. The time spent on each record is recorded so the time spent waiting for
+ * records can be told apart from the time spent writing them.
  *
  * @param <T> The type of object to write to the SequenceWriter.
  */
 /* default */ final class SequenceWritingCallbackHandler<T> implements RowCallbackHandler {
 
-    private static final Logger logger = LoggerFactory.getLogger(SequenceWritingCallbackHandler.class);
-
     private final SequenceWriter sequenceWriter;
     private final RowMapper<T> rowMapper;
+    private final ExportMetrics.Recording recording;
 
     private int rowCount = 0;
 
@@ -31,26 +29,59 @@ import org.springframework.jdbc.core.RowMapper;
      *
      * @param sequenceWriter The Jackson SequenceWriter to write objects to.
      * @param rowMapper The RowMapper to use to construct objects from each row in the ResultSet.
+     * @param recording Where to record the time spent on each record.
      */
-    /* default */ SequenceWritingCallbackHandler(final SequenceWriter sequenceWriter, final RowMapper<T> rowMapper) {
+    /* default */ SequenceWritingCallbackHandler(final SequenceWriter sequenceWriter, final RowMapper<T> rowMapper,
+                                                 final ExportMetrics.Recording recording) {
         this.sequenceWriter = sequenceWriter;
         this.rowMapper = rowMapper;
+        this.recording = recording;
     }
 
     @Override
     public void processRow(ResultSet rs) throws SQLException {
 
+        this.recording.recordStarted();
         try {
-            this.sequenceWriter.write(this.rowMapper.mapRow(rs, this.rowCount));
-            this.rowCount++;
-            if (this.rowCount % 1_000 == 0) {
-                logger.info(String.format("Streamed %,d records", this.rowCount));
-            }
+            this.writeValue(this.rowMapper.mapRow(rs, this.rowCount));
         } catch (IOException e) {
             throw new SQLException("Unable to marshall object", e);
+        } finally {
+            this.recording.recordFinished();
+        }
+    }
+
+    /**
+     * Writes an object that has already been constructed from a row to the SequenceWriter. This allows the
+     * work of constructing objects to be done on a different thread than the one writing them.
+     *
+     * @param value The object to write.
+     * @throws IOException Any error will be propagated.
+     */
+    /* default */ void write(final T value) throws IOException {
+
+        this.recording.recordStarted();
+        try {
+            this.writeValue(value);
+        } finally {
+            this.recording.recordFinished();
         }
     }
 
+    /**
+     * Returns the RowMapper this handler uses to construct objects from each row.
+     *
+     * @return The RowMapper this handler uses to construct objects from each row.
+     */
+    /* default */ RowMapper<T> getRowMapper() {
+        return this.rowMapper;
+    }
+
+    private void writeValue(final T value) throws IOException {
+        this.sequenceWriter.write(value);
+        this.rowCount++;
+    }
+
     /**
      * Returns the number of rows processed so far.
      *
@@ -0,0 +1,22 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.io.IOException;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * A way of reading records from the source table and handing them to a RowCallbackHandler.
+ *
+ * @param <H> The type of RowCallbackHandler this query can hand records to.
+ */
+@FunctionalInterface
+/* default */ interface SourceQuery<H extends RowCallbackHandler> {
+
+    /**
+     * Runs the query, handing each record to rowCallbackHandler.
+     *
+     * @param rowCallbackHandler The handler to hand each record to.
+     * @throws IOException Any error will be propagated.
+     */
+    void run(H rowCallbackHandler) throws IOException;
+}
@@ -0,0 +1,82 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+/**
+ * Which records and columns of the source table an export reads, and how much of the text it keeps. These are
+ * pushed down into the SQL, so the database only sends what the client will receive: the ID range becomes part of
+ * the where clause, and the text is truncated with left() or not selected at all. Text in the table can be
+ * thousands of characters long, but no more than IdWrapper.MAX_STRING_SIZE characters of it are ever written.
+ * <p>
+ * The text is selected as null if it was not asked for. PostgreSQL counts characters rather than UTF-16 chars like
+ * IdWrapper does, so text with characters outside the Basic Multilingual Plane can be truncated slightly differently
+ * than before.
+ */
+/* default */ final class SourceSelection {
+
+    /**
+     * Every record, with the text truncated the way IdWrapper truncates it.
+     */
+    /* default */ static final SourceSelection ALL = new SourceSelection(Long.MIN_VALUE, Long.MAX_VALUE, true,
+            IdWrapper.MAX_STRING_SIZE);
+
+    private final long after;
+    private final long upTo;
+    private final String textColumn;
+
+    /**
+     * Constructs a new SourceSelection.
+     *
+     * @param after Only records with an ID greater than this will be read.
+     * @param upTo Only records with an ID less than or equal to this will be read.
+     * @param text If false, the text is not read.
+     * @param textLength The most characters of text to keep, including the ellipsis that ends truncated text.
+     * @throws IllegalArgumentException If textLength is not between the length of the ellipsis and
+     *                                  IdWrapper.MAX_STRING_SIZE.
+     */
+    /* default */ SourceSelection(final long after, final long upTo, final boolean text, final int textLength) {
+
+        if (textLength < DirectRowWriter.ELLIPSIS.length || textLength > IdWrapper.MAX_STRING_SIZE) {
+            throw new IllegalArgumentException(String.format("The text length must be between %d and %d.",
+                    DirectRowWriter.ELLIPSIS.length, IdWrapper.MAX_STRING_SIZE));
+        }
+
+        this.after = after;
+        this.upTo = upTo;
+        // Key point: the text is truncated before it leaves the database.
+        this.textColumn = text
+                ? String.format("case when length(text_val) <= %d then text_val else left(text_val, %d) || '...' end",
+                        textLength, textLength - DirectRowWriter.ELLIPSIS.length)
+                : "null::text";
+    }
+
+    /**
+     * Returns the expression to select the text with in a query of the source table.
+     *
+     * @return The expression to select the text with.
+     */
+    /* default */ String getTextColumn() {
+        return this.textColumn;
+    }
+
+    /**
+     * Returns the ID that only records with greater IDs will be read after.
+     *
+     * @return The ID to read after.
+     */
+    /* default */ long getAfter() {
+        return this.after;
+    }
+
+    /**
+     * Returns the largest ID that will be read.
+     *
+     * @return The largest ID to read.
+     */
+    /* default */ long getUpTo() {
+        return this.upTo;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s where id > %d and id <= %d", this.textColumn, this.after, this.upTo);
+    }
+}
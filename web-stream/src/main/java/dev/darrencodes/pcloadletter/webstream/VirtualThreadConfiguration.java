@@ -0,0 +1,29 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import java.util.concurrent.Executors;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Runs each request on its own virtual thread rather than on Tomcat's pool of platform threads when
+ * pcloadletter.virtual-threads.enabled is true. An export spends nearly all of its time waiting on the database
+ * or the client, and a virtual thread gives its carrier back while it waits, so the number of concurrent exports
+ * is no longer capped by the number of request threads. The connection pool becomes the real limit.
+ */
+@Configuration
+@ConditionalOnProperty("pcloadletter.virtual-threads.enabled")
+public class VirtualThreadConfiguration {
+
+    /**
+     * Replaces Tomcat's request thread pool with an executor that starts a new virtual thread for each request.
+     *
+     * @return The customizer that sets Tomcat's executor.
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadExecutorCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+}
@@ -0,0 +1,62 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that CsvDirectRowWriter only quotes the values that need it, the way Jackson's CSV output does.
+ */
+class CsvDirectRowWriterTest {
+
+    @Test
+    void writesHeaderAndPlainValuesUnquoted() throws IOException {
+        assertEquals("id,text\n1,plain\n", write(1, "plain"));
+    }
+
+    @Test
+    void quotesValuesWithSeparatorsAndLineBreaks() throws IOException {
+
+        assertEquals("id,text\n1,\"a,b\"\n", write(1, "a,b"));
+        assertEquals("id,text\n1,\"a\nb\"\n", write(1, "a\nb"));
+        assertEquals("id,text\n1,\"a\rb\"\n", write(1, "a\rb"));
+    }
+
+    @Test
+    void doublesQuotes() throws IOException {
+        assertEquals("id,text\n1,\"say \"\"hi\"\"\"\n", write(1, "say \"hi\""));
+    }
+
+    @Test
+    void quotesEmptyTextButNotNull() throws IOException {
+
+        assertEquals("id,text\n1,\"\"\n", write(1, ""));
+        assertEquals("id,text\n1,\n", write(1, null));
+    }
+
+    @Test
+    void writesNegativeAndLargeIds() throws IOException {
+
+        assertEquals("id,text\n-42,x\n", write(-42, "x"));
+        assertEquals("id,text\n" + Long.MAX_VALUE + ",x\n", write(Long.MAX_VALUE, "x"));
+    }
+
+    private static String write(final long id, final String text) throws IOException {
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (CsvDirectRowWriter csvDirectRowWriter = new CsvDirectRowWriter(outputStream)) {
+            if (Objects.isNull(text)) {
+                csvDirectRowWriter.writeRow(id, null, 0, false);
+            } else {
+                final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                csvDirectRowWriter.writeRow(id, bytes, bytes.length, false);
+            }
+        }
+        return outputStream.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,60 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests that DirectRowWriter truncates text to the same value IdWrapper does, counting UTF-16 chars rather than
+ * bytes.
+ */
+class DirectRowWriterTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 46, 47, 49, 50, 51, 52, 100, 5_000})
+    void truncatesAsciiLikeIdWrapper(final int length) throws IOException, SQLException {
+        assertTruncatedLikeIdWrapper("a".repeat(length));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {49, 50, 51, 60})
+    void truncatesMultiByteCharactersLikeIdWrapper(final int length) throws IOException, SQLException {
+
+        // Two and three bytes in UTF-8, but one UTF-16 char each.
+        assertTruncatedLikeIdWrapper("é".repeat(length));
+        assertTruncatedLikeIdWrapper("€".repeat(length));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {47, 48, 49})
+    void countsSupplementaryCharactersAsTwo(final int prefixLength) throws IOException, SQLException {
+        // Four bytes in UTF-8 and a surrogate pair in UTF-16, placed where it decides whether the text is truncated.
+        assertTruncatedLikeIdWrapper("a".repeat(prefixLength) + "😀");
+    }
+
+    private static void assertTruncatedLikeIdWrapper(final String text) throws IOException, SQLException {
+
+        final ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.getLong(1)).thenReturn(7L);
+        when(resultSet.getBytes(2)).thenReturn(text.getBytes(StandardCharsets.UTF_8));
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (CsvDirectRowWriter csvDirectRowWriter = new CsvDirectRowWriter(outputStream)) {
+            csvDirectRowWriter.processRow(resultSet);
+        }
+
+        // None of the texts need quoting, except the empty one.
+        final String expected = new IdWrapper().setId(7).setText(text).getText();
+        final String written = expected.isEmpty() ? "\"\"" : expected;
+        assertEquals("id,text\n7," + written + "\n", outputStream.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,186 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import javax.sql.DataSource;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests which exports ExportCache keys, how it evicts, and that it cleans up its directory. The data version is
+ * read from a mocked DataSource.
+ */
+class ExportCacheTest {
+
+    private final AtomicReference<String> dataVersion = new AtomicReference<>("100:200");
+    private final ExportMetrics exportMetrics = new ExportMetrics(new SimpleMeterRegistry());
+
+    @TempDir
+    /* default */ Path directory;
+
+    private DataSource dataSource;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+
+        // Each query gets a new ResultSet with one row holding the current version.
+        final Statement statement = mock(Statement.class);
+        when(statement.executeQuery(anyString())).thenAnswer(invocation -> this.versionResultSet());
+        final Connection connection = mock(Connection.class);
+        when(connection.createStatement()).thenReturn(statement);
+        this.dataSource = mock(DataSource.class);
+        when(this.dataSource.getConnection()).thenReturn(connection);
+    }
+
+    @Test
+    void onlyKeysWholeTableExportsWhenEnabled() throws IOException {
+
+        assertNull(this.newCache(false, 1_000).key(new ExportOptions()));
+
+        final ExportCache exportCache = this.newCache(true, 1_000);
+        assertNotNull(exportCache.key(new ExportOptions()));
+
+        final ExportOptions chunked = new ExportOptions();
+        chunked.setChunked(true);
+        assertNull(exportCache.key(chunked));
+
+        final ExportOptions resumed = new ExportOptions();
+        resumed.setAfter(10L);
+        assertNull(exportCache.key(resumed));
+
+        final ExportOptions incremental = new ExportOptions();
+        incremental.setSince(-1L);
+        assertNull(exportCache.key(incremental));
+    }
+
+    @Test
+    void keysByTheDataVersion() throws IOException {
+
+        final ExportCache exportCache = this.newCache(true, 1_000);
+        final String before = exportCache.key(new ExportOptions());
+        assertEquals(before, exportCache.key(new ExportOptions()));
+
+        this.dataVersion.set("100:201");
+        assertNotEquals(before, exportCache.key(new ExportOptions()));
+    }
+
+    @Test
+    void servesWhatWasCommitted() throws IOException {
+
+        final ExportCache exportCache = this.newCache(true, 1_000);
+        this.put(exportCache, "a", new byte[] {1, 2, 3});
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertTrue(exportCache.serve("a", outputStream, this.exportMetrics.start("json")));
+        assertArrayEquals(new byte[] {1, 2, 3}, outputStream.toByteArray());
+        assertFalse(exportCache.serve("b", new ByteArrayOutputStream(), this.exportMetrics.start("json")));
+    }
+
+    @Test
+    void discardsEntriesThatAreNotCommitted() throws IOException {
+
+        final ExportCache exportCache = this.newCache(true, 1_000);
+        try (ExportCache.Entry entry = exportCache.begin("a")) {
+            entry.getOutputStream().write(new byte[] {1, 2, 3});
+        }
+
+        assertFalse(exportCache.serve("a", new ByteArrayOutputStream(), this.exportMetrics.start("json")));
+        assertEquals(0, this.fileCount());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsed() throws IOException {
+
+        final ExportCache exportCache = this.newCache(true, 10);
+        this.put(exportCache, "a", new byte[4]);
+        this.put(exportCache, "b", new byte[4]);
+
+        // Serving a makes b the least recently used, so b is evicted to make room for c.
+        assertTrue(exportCache.serve("a", new ByteArrayOutputStream(), this.exportMetrics.start("json")));
+        this.put(exportCache, "c", new byte[4]);
+
+        assertTrue(exportCache.serve("a", new ByteArrayOutputStream(), this.exportMetrics.start("json")));
+        assertFalse(exportCache.serve("b", new ByteArrayOutputStream(), this.exportMetrics.start("json")));
+        assertTrue(exportCache.serve("c", new ByteArrayOutputStream(), this.exportMetrics.start("json")));
+        assertEquals(2, this.fileCount());
+    }
+
+    @Test
+    void replacesAnOlderEntryForTheSameKey() throws IOException {
+
+        final ExportCache exportCache = this.newCache(true, 1_000);
+        this.put(exportCache, "a", new byte[] {1});
+        this.put(exportCache, "a", new byte[] {2});
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertTrue(exportCache.serve("a", outputStream, this.exportMetrics.start("json")));
+        assertArrayEquals(new byte[] {2}, outputStream.toByteArray());
+        assertEquals(1, this.fileCount());
+    }
+
+    @Test
+    void deletesWhatAPreviousRunLeftBehind() throws IOException {
+
+        Files.write(this.directory.resolve("export-1.tmp"), new byte[] {1});
+        Files.write(this.directory.resolve("notes.txt"), new byte[] {1});
+
+        this.newCache(true, 1_000);
+
+        assertFalse(Files.exists(this.directory.resolve("export-1.tmp")));
+        assertTrue(Files.exists(this.directory.resolve("notes.txt")));
+    }
+
+    private ExportCache newCache(final boolean enabled, final long maxBytes) throws IOException {
+        return new ExportCache(this.dataSource, new ReaderSettings(1_000, true, 0, 0), new SimpleMeterRegistry(),
+                enabled, this.directory.toString(), maxBytes);
+    }
+
+    private void put(final ExportCache exportCache, final String key, final byte[] bytes) throws IOException {
+
+        try (ExportCache.Entry entry = exportCache.begin(key)) {
+            entry.getOutputStream().write(bytes);
+            entry.commit(1);
+        }
+    }
+
+    private long fileCount() throws IOException {
+
+        try (Stream<Path> files = Files.list(this.directory)) {
+            return files.count();
+        }
+    }
+
+    private ResultSet versionResultSet() throws SQLException {
+
+        final ResultSetMetaData resultSetMetaData = mock(ResultSetMetaData.class);
+        when(resultSetMetaData.getColumnCount()).thenReturn(1);
+        final ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.getMetaData()).thenReturn(resultSetMetaData);
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getString(1)).thenReturn(this.dataVersion.get());
+        return resultSet;
+    }
+}
@@ -0,0 +1,174 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests that ExportOptions rejects requests it cannot serve and turns the rest into the right selection.
+ */
+class ExportOptionsTest {
+
+    @Test
+    void acceptsTheDefaults() {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        assertDoesNotThrow(exportOptions::validate);
+        assertEquals(SourceSelection.ALL.toString(), exportOptions.getSelection().toString());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, -1, KeysetPagingReader.MAX_CHUNK_SIZE + 1, Integer.MAX_VALUE})
+    void rejectsChunkSizesOutOfRange(final int chunkSize) {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        exportOptions.setChunkSize(chunkSize);
+        assertThrows(IllegalArgumentException.class, exportOptions::validate);
+    }
+
+    @Test
+    void acceptsChunkSizesUpToTheMaximum() {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        exportOptions.setChunkSize(KeysetPagingReader.MAX_CHUNK_SIZE);
+        exportOptions.setPartitions(PartitionedSourceReader.MAX_PARTITIONS);
+        assertDoesNotThrow(exportOptions::validate);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, PartitionedSourceReader.MAX_PARTITIONS + 1})
+    void rejectsPartitionsOutOfRange(final int partitions) {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        exportOptions.setPartitions(partitions);
+        assertThrows(IllegalArgumentException.class, exportOptions::validate);
+    }
+
+    @Test
+    void acceptsPartitionsUpToTheMaximum() {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        exportOptions.setPartitions(PartitionedSourceReader.MAX_PARTITIONS);
+        assertDoesNotThrow(exportOptions::validate);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"arrow", "ndjson", "cbor"})
+    void rejectsPartitioningFormatsThatCannotBePartitioned(final String format) {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        exportOptions.setFormat(format);
+        assertDoesNotThrow(exportOptions::validate);
+
+        exportOptions.setPartitions(2);
+        assertThrows(IllegalArgumentException.class, exportOptions::validate);
+    }
+
+    @Test
+    void rejectsChunkingAPassthroughExport() {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        exportOptions.setFormat("csv");
+        exportOptions.setPassthrough(true);
+        assertDoesNotThrow(exportOptions::validate);
+
+        exportOptions.setChunked(true);
+        assertThrows(IllegalArgumentException.class, exportOptions::validate);
+
+        final ExportOptions resumed = new ExportOptions();
+        resumed.setFormat("csv");
+        resumed.setPassthrough(true);
+        resumed.setAfter(10L);
+        assertThrows(IllegalArgumentException.class, resumed::validate);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, ArrowDirectRowWriter.MAX_BATCH_SIZE + 1, Integer.MAX_VALUE})
+    void rejectsArrowBatchSizesOutOfRange(final int batchSize) {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        exportOptions.setFormat("arrow");
+        exportOptions.setBatchSize(batchSize);
+        assertThrows(IllegalArgumentException.class, exportOptions::validate);
+    }
+
+    @Test
+    void acceptsArrowBatchSizesUpToTheMaximum() {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        exportOptions.setFormat("arrow");
+        exportOptions.setBatchSize(ArrowDirectRowWriter.MAX_BATCH_SIZE);
+        assertDoesNotThrow(exportOptions::validate);
+    }
+
+    @Test
+    void makesFromIdInclusive() {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        exportOptions.setFromId(10L);
+        exportOptions.setToId(20L);
+
+        final SourceSelection sourceSelection = exportOptions.getSelection();
+        assertEquals(9, sourceSelection.getAfter());
+        assertEquals(20, sourceSelection.getUpTo());
+    }
+
+    @Test
+    void doesNotOverflowOnTheSmallestFromId() {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        exportOptions.setFromId(Long.MIN_VALUE);
+        assertEquals(Long.MIN_VALUE, exportOptions.getSelection().getAfter());
+    }
+
+    @Test
+    void leavesTextOutUnlessItIsAskedFor() {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        exportOptions.setColumns("id");
+        assertEquals("null::text", exportOptions.getSelection().getTextColumn());
+
+        exportOptions.setColumns(" id , text ");
+        assertEquals(SourceSelection.ALL.getTextColumn(), exportOptions.getSelection().getTextColumn());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"id,text_val", "ID", ",text", "id;text"})
+    void rejectsUnknownColumns(final String columns) {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        exportOptions.setColumns(columns);
+        assertThrows(IllegalArgumentException.class, exportOptions::getSelection);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, IdWrapper.MAX_STRING_SIZE + 1})
+    void rejectsTextLengthsOutOfRange(final int textLength) {
+
+        final ExportOptions exportOptions = new ExportOptions();
+        exportOptions.setTextLength(textLength);
+        assertThrows(IllegalArgumentException.class, exportOptions::getSelection);
+    }
+
+    @Test
+    void keysExportsByEverythingThatChangesTheirOutput() {
+
+        final ExportOptions json = new ExportOptions();
+        final ExportOptions csv = new ExportOptions();
+        csv.setFormat("csv");
+        final ExportOptions idOnly = new ExportOptions();
+        idOnly.setColumns("id");
+        final ExportOptions ranged = new ExportOptions();
+        ranged.setToId(100L);
+
+        assertEquals(json.cacheKey(), new ExportOptions().cacheKey());
+        assertNotEquals(json.cacheKey(), csv.cacheKey());
+        assertNotEquals(json.cacheKey(), idOnly.cacheKey());
+        assertNotEquals(json.cacheKey(), ranged.cacheKey());
+    }
+}
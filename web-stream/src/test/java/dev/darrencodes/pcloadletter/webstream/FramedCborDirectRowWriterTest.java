@@ -0,0 +1,94 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that FramedCborDirectRowWriter precedes each record with its length, so the records can be found and parsed
+ * one at a time.
+ */
+class FramedCborDirectRowWriterTest {
+
+    private static final TypeReference<Map<String, Object>> RECORD = new TypeReference<>() { };
+
+    @Test
+    void precedesEachRecordWithItsLength() throws IOException {
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (FramedCborDirectRowWriter framedCborDirectRowWriter = new FramedCborDirectRowWriter(outputStream)) {
+            write(framedCborDirectRowWriter, 1, "one");
+            write(framedCborDirectRowWriter, 2, null);
+            write(framedCborDirectRowWriter, 3, "x".repeat(1_000));
+        }
+
+        final List<Map<String, Object>> records = readFramed(outputStream.toByteArray());
+        assertEquals(3, records.size());
+        assertEquals(Map.of("id", 1, "text", "one"), records.get(0));
+        assertEquals(2, records.get(1).get("id"));
+        assertTrue(records.get(1).containsKey("text"));
+        assertNull(records.get(1).get("text"));
+        assertEquals("x".repeat(1_000), records.get(2).get("text"));
+    }
+
+    @Test
+    void writesTruncatedTextWithEllipsis() throws IOException {
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (FramedCborDirectRowWriter framedCborDirectRowWriter = new FramedCborDirectRowWriter(outputStream)) {
+            final byte[] text = "abcdef".getBytes(StandardCharsets.UTF_8);
+            framedCborDirectRowWriter.writeRow(4, text, 3, true);
+        }
+
+        assertEquals("abc...", readFramed(outputStream.toByteArray()).get(0).get("text"));
+    }
+
+    @Test
+    void writesNothingForNoRecords() throws IOException {
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new FramedCborDirectRowWriter(outputStream).close();
+
+        assertEquals(0, outputStream.size());
+    }
+
+    private static void write(final FramedCborDirectRowWriter framedCborDirectRowWriter, final long id,
+                              final String text) throws IOException {
+
+        if (Objects.isNull(text)) {
+            framedCborDirectRowWriter.writeRow(id, null, 0, false);
+        } else {
+            final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            framedCborDirectRowWriter.writeRow(id, bytes, bytes.length, false);
+        }
+    }
+
+    // Reads each record's length and parses exactly that many bytes on their own, the way a client splitting the
+    // stream would.
+    private static List<Map<String, Object>> readFramed(final byte[] bytes) throws IOException {
+
+        final CBORMapper cborMapper = new CBORMapper();
+        final DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(bytes));
+        final List<Map<String, Object>> records = new ArrayList<>();
+        while (dataInputStream.available() > 0) {
+            final byte[] record = new byte[dataInputStream.readInt()];
+            dataInputStream.readFully(record);
+            records.add(cborMapper.readValue(record, RECORD));
+        }
+        return records;
+    }
+}
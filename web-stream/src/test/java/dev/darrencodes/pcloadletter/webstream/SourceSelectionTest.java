@@ -0,0 +1,54 @@
+package dev.darrencodes.pcloadletter.webstream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the SQL SourceSelection pushes down into the source query.
+ */
+class SourceSelectionTest {
+
+    @Test
+    void truncatesTheWayIdWrapperDoes() {
+
+        // IdWrapper keeps MAX_STRING_SIZE characters, and replaces the end of anything longer with an ellipsis so
+        // the result is still MAX_STRING_SIZE characters.
+        final int kept = IdWrapper.MAX_STRING_SIZE - DirectRowWriter.ELLIPSIS.length;
+        assertEquals(String.format("case when length(text_val) <= %d then text_val else left(text_val, %d) || '...' end",
+                IdWrapper.MAX_STRING_SIZE, kept), SourceSelection.ALL.getTextColumn());
+        assertEquals("a".repeat(kept) + "...",
+                new IdWrapper().setText("a".repeat(IdWrapper.MAX_STRING_SIZE + 1)).getText());
+    }
+
+    @Test
+    void truncatesToTheGivenLength() {
+        assertEquals("case when length(text_val) <= 10 then text_val else left(text_val, 7) || '...' end",
+                new SourceSelection(0, 100, true, 10).getTextColumn());
+    }
+
+    @Test
+    void selectsNullWhenTextIsNotWanted() {
+        assertEquals("null::text", new SourceSelection(0, 100, false, 10).getTextColumn());
+    }
+
+    @Test
+    void keepsTheIdRange() {
+
+        final SourceSelection sourceSelection = new SourceSelection(-1, 99, true, IdWrapper.MAX_STRING_SIZE);
+        assertEquals(-1, sourceSelection.getAfter());
+        assertEquals(99, sourceSelection.getUpTo());
+        assertEquals(Long.MIN_VALUE, SourceSelection.ALL.getAfter());
+        assertEquals(Long.MAX_VALUE, SourceSelection.ALL.getUpTo());
+    }
+
+    @Test
+    void rejectsTextLengthsOutOfRange() {
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new SourceSelection(0, 100, true, DirectRowWriter.ELLIPSIS.length - 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> new SourceSelection(0, 100, true, IdWrapper.MAX_STRING_SIZE + 1));
+    }
+}